@@ -0,0 +1,147 @@
+package benchmarks;
+
+import audio_core.NullSink;
+import audio_core.audio_engine;
+import audio_core.pattern_store;
+import audio_core.presets.sine;
+import audio_core.render_scheduler;
+import audio_core.sequencer;
+import audio_core.wave_script;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fails if the playback path allocates once warmed up.
+ *
+ * Plays a busy pattern through the sequencer, first on the calling thread and
+ * then through an audio_engine feeding a NullSink with channels rendered on a
+ * fork-join pool, while the main thread posts live cell edits. Allocation is
+ * read per thread from ThreadMXBean. Run by the benchmarks project's check task.
+ *
+ * Only the engine's render and output threads must stay at 0 bytes. The
+ * fork-join workers are reported but not checked: the pool's own
+ * bookkeeping (outside this code) occasionally allocates a few dozen bytes
+ * while workers park and wake, which would make the check fail at random.
+ */
+public class AllocationCheck {
+    private static final int SAMPLE_RATE = 44100;
+    private static final int BLOCK = 256;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws InterruptedException {
+        boolean ok = check_render_loop();
+        ok &= check_engine();
+        if (!ok) {
+            System.err.println("The playback path allocates in steady state.");
+            System.exit(1);
+        }
+        System.out.println("No steady-state allocation on the playback path.");
+    }
+
+    private static sequencer busy_sequencer() {
+        wave_script[] channel_scripts = new wave_script[sequencer.CHANNELS];
+        for (int c = 0; c < channel_scripts.length; c++) {
+            channel_scripts[c] = new sine();
+        }
+        sequencer seq = new sequencer(channel_scripts);
+        // Every cell changes note on every row, so each row stops and starts four voices
+        for (int r = 0; r < seq.song.rows(0); r++) {
+            for (int c = 0; c < seq.song.channels(); c++) {
+                seq.song.set_cell(0, r, c, pattern_store.pack(48 + (r * 5 + c * 7) % 36, (byte) (r * 16), (byte) 0, 0, true));
+            }
+        }
+        // Short rows so plenty of steps happen during the check
+        seq.clock.set_tempo(480, 4);
+        return seq;
+    }
+
+    private static boolean check_render_loop() {
+        sequencer seq = busy_sequencer();
+        float[] out = new float[BLOCK];
+        for (int i = 0; i < 50_000; i++) {
+            seq.render(out, 0, BLOCK);
+        }
+        long overhead = measurement_overhead();
+        long before = THREADS.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < 20_000; i++) {
+            seq.render(out, 0, BLOCK);
+        }
+        long allocated = THREADS.getCurrentThreadAllocatedBytes() - before - overhead;
+        System.out.printf("sequencer render loop: %d bytes over 20000 blocks, %d rows%n",
+                allocated, seq.rows_played());
+        return allocated <= 0;
+    }
+
+    private static boolean check_engine() throws InterruptedException {
+        sequencer seq = busy_sequencer();
+        NullSink sink = new NullSink(SAMPLE_RATE);
+        try (render_scheduler scheduler = new render_scheduler(seq.channel_scripts, 2)) {
+            seq.set_output(scheduler);
+            audio_engine engine = new audio_engine(seq, sink, SAMPLE_RATE, BLOCK);
+            engine.start();
+            // Warm up the edit path too, so the measurement does not see it being linked
+            post_edits(seq, 3000);
+
+            long[] engine_ids = thread_ids("audio-");
+            long[] worker_ids = thread_ids("ForkJoinPool-");
+            long[] engine_before = THREADS.getThreadAllocatedBytes(engine_ids);
+            long[] workers_before = THREADS.getThreadAllocatedBytes(worker_ids);
+            long frames_before = engine.frames_rendered();
+            int edits = post_edits(seq, 2000);
+            long[] engine_after = THREADS.getThreadAllocatedBytes(engine_ids);
+            long[] workers_after = THREADS.getThreadAllocatedBytes(worker_ids);
+            long frames = engine.frames_rendered() - frames_before;
+            engine.stop();
+
+            long allocated = allocated(engine_before, engine_after);
+            System.out.printf("audio_engine render and output threads: %d bytes over %d frames, %d live edits%n",
+                    allocated, frames, edits);
+            System.out.printf("  fork-join workers (%d, not checked): %d bytes%n",
+                    worker_ids.length, allocated(workers_before, workers_after));
+            return engine_ids.length == 2 && allocated <= 0;
+        }
+    }
+
+    /** Posts a cell edit every millisecond for the given time, as a fast typist would. */
+    private static int post_edits(sequencer seq, long millis) throws InterruptedException {
+        int edits = 0;
+        long end = System.currentTimeMillis() + millis;
+        while (System.currentTimeMillis() < end) {
+            int row = edits % seq.song.rows(0);
+            int channel = edits % seq.song.channels();
+            if (seq.post_cell(0, row, channel, pattern_store.pack(48 + edits % 36, (byte) 0, (byte) 0, 0, true))) {
+                edits++;
+            }
+            Thread.sleep(1);
+        }
+        return edits;
+    }
+
+    /** Live threads whose names start with prefix. */
+    private static long[] thread_ids(String prefix) {
+        List<Long> ids = new ArrayList<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith(prefix)) {
+                ids.add(thread.threadId());
+            }
+        }
+        return ids.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static long allocated(long[] before, long[] after) {
+        long total = 0;
+        for (int i = 0; i < before.length; i++) {
+            total += after[i] - before[i];
+        }
+        return total;
+    }
+
+    private static long measurement_overhead() {
+        long first = THREADS.getCurrentThreadAllocatedBytes();
+        return THREADS.getCurrentThreadAllocatedBytes() - first;
+    }
+}
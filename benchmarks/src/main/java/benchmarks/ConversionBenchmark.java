@@ -0,0 +1,88 @@
+package benchmarks;
+
+import audio_core.master_bus;
+import audio_core.pcm_encoder;
+import audio_core.wave_script;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of converting a block of float samples to the PCM bytes AudioPlayer writes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class ConversionBenchmark {
+
+    @Param({"64", "256", "1024"})
+    public int block;
+
+    private float[] samples;
+    private byte[] bytes;
+    private float[] mixed;
+    private master_bus master;
+
+    @Setup
+    public void setup() {
+        samples = new float[block];
+        for (int i = 0; i < block; i++) {
+            samples[i] = (float) Math.sin(i * 0.05) * 1.2f;
+        }
+        bytes = new byte[block * 3];
+        mixed = new float[block];
+        master = new master_bus(44100);
+    }
+
+    /** Signed 8-bit, the format the line used to be opened with. */
+    @Benchmark
+    public byte[] quantise_8_bit() {
+        wave_script.quantise(samples, 0, bytes, 0, block);
+        return bytes;
+    }
+
+    /** 16-bit little-endian, byte by byte, as AudioPlayer.main used to. */
+    @Benchmark
+    public byte[] pcm_16_bit() {
+        for (int i = 0; i < block; i++) {
+            short value = (short) (Math.clamp(samples[i], -1f, 1f) * 32767);
+            bytes[i * 2] = (byte) (value & 0xFF);
+            bytes[i * 2 + 1] = (byte) ((value >> 8) & 0xFF);
+        }
+        return bytes;
+    }
+
+    /** 16-bit little-endian in one pcm_encoder pass, as the engine writes it. */
+    @Benchmark
+    public byte[] encode_16_bit() {
+        pcm_encoder.encode_16(samples, 0, bytes, 0, block);
+        return bytes;
+    }
+
+    @Benchmark
+    public byte[] encode_24_bit() {
+        pcm_encoder.encode_24(samples, 0, bytes, 0, block);
+        return bytes;
+    }
+
+    /** The master bus stage before conversion; the samples peak above full scale, so it limits. */
+    @Benchmark
+    public float[] master_bus() {
+        System.arraycopy(samples, 0, mixed, 0, block);
+        master.process(mixed, 0, block);
+        return mixed;
+    }
+}
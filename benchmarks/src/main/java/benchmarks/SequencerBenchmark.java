@@ -0,0 +1,80 @@
+package benchmarks;
+
+import audio_core.Note;
+import audio_core.pattern_store;
+import audio_core.presets.sine;
+import audio_core.sequencer;
+import audio_core.wave_script;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of stepping the sequencer and of the note events it creates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class SequencerBenchmark {
+
+    @Param({"64", "256", "1024"})
+    public int block;
+
+    private sequencer seq;
+    private wave_script script;
+    private float[] out;
+    private int row = 0;
+
+    @Setup
+    public void setup() {
+        wave_script[] channel_scripts = new wave_script[sequencer.CHANNELS];
+        for (int c = 0; c < channel_scripts.length; c++) {
+            channel_scripts[c] = new sine();
+        }
+        seq = new sequencer(channel_scripts);
+        // Every cell changes note on every row, the worst case for call_note_sequence
+        for (int r = 0; r < seq.song.rows(0); r++) {
+            for (int c = 0; c < seq.song.channels(); c++) {
+                seq.song.set_cell(0, r, c, pattern_store.pack(48 + (r * 5 + c * 7) % 36, (byte) (r * 16), (byte) 0, 0, true));
+            }
+        }
+        script = new sine();
+        out = new float[block];
+    }
+
+    /** One row step. */
+    @Benchmark
+    public int call_note_sequence() {
+        seq.call_note_sequence(row);
+        row = (row + 1) % seq.song.rows(0);
+        return row;
+    }
+
+    /** One block of sequenced audio, including any row steps that fall inside it. */
+    @Benchmark
+    public float[] render() {
+        seq.render(out, 0, block);
+        return out;
+    }
+
+    /** Starting and stopping a note through Note objects, as the sequencer does. */
+    @Benchmark
+    public int note_churn() {
+        int voice = script.note_start(new Note(60, (byte) 0));
+        script.remove_note(script.get_note_index(new Note(60)));
+        return voice;
+    }
+}
@@ -0,0 +1,94 @@
+package benchmarks;
+
+import audio_core.Note;
+import audio_core.presets.sine;
+import audio_core.wave_script;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of rendering one block of audio from a wave_script, by polyphony and
+ * block size. Divide by the block's duration (block / 44100 s) for DSP load.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class WaveScriptBenchmark {
+
+    @Param({"1", "4", "16", "64", "256"})
+    public int voices;
+
+    @Param({"64", "256", "1024"})
+    public int block;
+
+    @Param({"false", "true"})
+    public boolean simd;
+
+    private wave_script script;
+    private float[] floats;
+    private float[] stereo;
+    private byte[] bytes;
+
+    @Setup
+    public void setup() {
+        script = new sine(voices);
+        script.use_simd = simd;
+        for (int v = 0; v < voices; v++) {
+            script.note_start(new Note(36 + (v * 7) % 72, (byte) (v * 13)));
+        }
+        floats = new float[block];
+        stereo = new float[block * 2];
+        bytes = new byte[block];
+    }
+
+    /** The float block render API. */
+    @Benchmark
+    public float[] render() {
+        script.render(floats, 0, block);
+        return floats;
+    }
+
+    /** Interleaved stereo. Every voice is centred, so this is render plus one panning pass. */
+    @Benchmark
+    public float[] render_stereo() {
+        script.render_stereo(stereo, 0, block);
+        return stereo;
+    }
+
+    /** Rendering and quantising into a caller-owned byte buffer. */
+    @Benchmark
+    public byte[] generate_into() {
+        script.generate(bytes, 0, block);
+        return bytes;
+    }
+
+    /** The original API, which allocates a new array per call. */
+    @Benchmark
+    public byte[] generate() {
+        return script.generate(block);
+    }
+
+    /** One generate_cycle() call per sample, as the engine used to run. */
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public void generate_cycle(Blackhole blackhole) {
+        for (int i = 0; i < block; i++) {
+            blackhole.consume(script.generate_cycle());
+        }
+    }
+}
@@ -1,23 +1,27 @@
 package GUI;
 
-import audio_core.audio_buffer;
+import audio_core.audio_engine;
+import audio_core.audio_session;
+import audio_core.pattern_store;
+import audio_core.project_file;
 import audio_core.presets.sine;
+import audio_core.render_scheduler;
 import audio_core.sequencer;
 import audio_core.wave_script;
+import ui.UiFrameEvent;
 
-import javax.sound.sampled.LineUnavailableException;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.io.IOException;
+import java.nio.file.Path;
 
 /**
  * UI_Core.java
  * A Java Swing class that creates a custom component (a JPanel)
- * to display and edit a 2D byte array (byte[8][4]) and a 2D int array (int[8][4]).
- * The 'V' key toggles between editing the Sequence (int) grid and the Velocity (byte) grid.
+ * to display and edit an 8-row, 4-channel pattern held in a pattern_store.
+ * The 'V' key cycles between editing the notes, velocities and pans of the pattern.
  * SPACEBAR now toggles the sequence playback (Start/Stop).
  */
 public class UI_Core extends JPanel implements KeyListener {
@@ -26,24 +30,40 @@ public class UI_Core extends JPanel implements KeyListener {
     private static final int NUM_ROWS = 8;
     private static final int NUM_COLS = 4;
 
-    // 1. SEQUENCE GRID: Stores MIDI Note Numbers (0-127 usually, but allowing 0-255 int input)
-    private int[][] sequenceGrid = new int[NUM_ROWS][NUM_COLS];
+    // The song being edited. Each cell holds a MIDI note number and velocity
+    // (0-127 usually, but allowing 0-255 input); the sequencer plays it directly.
+    private pattern_store song = pattern_store.single_pattern(NUM_ROWS, NUM_COLS);
+    private int currentPattern = 0;
 
-    // 2. VELOCITY GRID: Stores MIDI Velocity (0-127 usually, but allowing 0-255 byte input)
-    private byte[][] velocityGrid = new byte[NUM_ROWS][NUM_COLS];
+    // Where S saves and O opens. Once saved, later saves only write what changed.
+    private static final Path PROJECT_PATH = Path.of("uwu-project.uwu");
+    private project_file projectFile = null;
 
     private int selectedRow = 0;
     private int selectedCol = 0;
 
     // NEW: State for the active grid
-    private boolean editingSequence = true; // true = editing sequenceGrid (int), false = editing velocityGrid (byte)
+    // Pans are shown and entered as 0 (left) to 255 (right), with 128 in the centre
+    private enum Column { NOTE, VELOCITY, PAN }
+    private Column editingColumn = Column.NOTE; // V cycles through the columns
 
     private StringBuilder inputBuffer = new StringBuilder();
     private String statusMessage;
 
     // --- Sequence Management NEW ---
-    private java.util.Timer sequenceTimer = null; // Timer to manage the playback loop
+    private static final int SAMPLE_RATE = 44100;
+    // Keeps the sound card open and primed for the editor's lifetime; Space only swaps what it plays
+    private final audio_session audioSession = audio_session.from_properties(SAMPLE_RATE);
+    // Refreshes the status line and playhead while playing, so the load meter
+    // and the highlighted row stay current
+    private final javax.swing.Timer meterTimer = new javax.swing.Timer(40, e -> {
+        updateStatusMessage();
+        repaint();
+    });
     private boolean isSequenceRunning = false;     // State flag
+    private render_scheduler renderScheduler = null; // Mixes the channels on worker threads
+    // Plays its own copy of the song; edits reach it through its command ring
+    private sequencer playingSequencer = null;
 
     // --- UI Constants ---
     private final int CELL_SIZE = 80;
@@ -54,13 +74,11 @@ public class UI_Core extends JPanel implements KeyListener {
      * Constructor for UI_Core.
      */
     public UI_Core() {
-        // Initialize the grids with some starting values
-        for (int r = 0; r < NUM_ROWS; r++) {
-            for (int c = 0; c < NUM_COLS; c++) {
-                sequenceGrid[r][c] = 0;
-                // Initialize Velocity (e.g., 100)
-                velocityGrid[r][c] = 0;
-            }
+        // Open the device up front, so the first Space press plays at once
+        try {
+            audioSession.open();
+        } catch (Exception ex) {
+            System.err.println("Could not open the audio device, will retry on play: " + ex.getMessage());
         }
 
         // Set initial status message
@@ -79,10 +97,19 @@ public class UI_Core extends JPanel implements KeyListener {
      * Updates the status message based on the current editing mode and sequence state.
      */
     private void updateStatusMessage() {
-        String mode = editingSequence ? "SEQUENCE (int)" : "VELOCITY (byte)";
+        String mode = switch (editingColumn) {
+            case NOTE -> "SEQUENCE (int)";
+            case VELOCITY -> "VELOCITY (byte)";
+            case PAN -> "PAN (0 left, 128 centre, 255 right)";
+        };
         String status = isSequenceRunning ? "Sequence RUNNING (Space to STOP)!" : "Sequence STOPPED (Space to PLAY).";
+        audio_engine engine = audioSession.engine();
+        if (isSequenceRunning && engine != null) {
+            status += String.format(" Latency %.1f ms (period %d). %s. M to save metrics.",
+                    engine.latency_ms(), engine.period_frames(), engine.metrics.summary());
+        }
 
-        statusMessage = String.format("Mode: %s. Selected [%d][%d]. Enter value (0-255). Press V to toggle. | %s",
+        statusMessage = String.format("Mode: %s. Selected [%d][%d]. Enter value (0-255). Press V to switch column, S to save, O to open. | %s",
                 mode, selectedRow, selectedCol, status);
     }
 
@@ -91,6 +118,8 @@ public class UI_Core extends JPanel implements KeyListener {
      */
     @Override
     protected void paintComponent(Graphics g) {
+        UiFrameEvent frameEvent = new UiFrameEvent();
+        frameEvent.begin();
         super.paintComponent(g);
         Graphics2D g2d = (Graphics2D) g;
 
@@ -103,20 +132,24 @@ public class UI_Core extends JPanel implements KeyListener {
         if (isSequenceRunning) {
             statusColor = new Color(255, 50, 50); // Red when running
         } else {
-            statusColor = editingSequence ? new Color(255, 255, 100) : new Color(100, 255, 100);
+            statusColor = switch (editingColumn) {
+                case NOTE -> new Color(255, 255, 100);
+                case VELOCITY -> new Color(100, 255, 100);
+                case PAN -> new Color(100, 200, 255);
+            };
         }
 
         g2d.setColor(statusColor);
         g2d.drawString(statusMessage, PADDING_X, 50);
 
         // --- 2. Draw the Grid and Values ---
-        for (int r = 0; r < NUM_ROWS; r++) {
+        for (int r = 0; r < visibleRows(); r++) {
             for (int c = 0; c < NUM_COLS; c++) {
                 int x = PADDING_X + c * CELL_SIZE;
                 int y = START_Y + r * CELL_SIZE;
 
-                // Draw Cell Background
-                g2d.setColor(new Color(40, 40, 60));
+                // Draw Cell Background, lighter on the row playing
+                g2d.setColor(isPlayingRow(r) ? new Color(70, 70, 110) : new Color(40, 40, 60));
                 g2d.fillRect(x, y, CELL_SIZE, CELL_SIZE);
 
                 // Draw Cell Border
@@ -125,7 +158,11 @@ public class UI_Core extends JPanel implements KeyListener {
 
                 // Draw Selection Indicator (Cursor)
                 if (r == selectedRow && c == selectedCol) {
-                    Color cursorColor = editingSequence ? new Color(255, 180, 0, 180) : new Color(0, 255, 0, 180);
+                    Color cursorColor = switch (editingColumn) {
+                        case NOTE -> new Color(255, 180, 0, 180);
+                        case VELOCITY -> new Color(0, 255, 0, 180);
+                        case PAN -> new Color(0, 160, 255, 180);
+                    };
                     g2d.setColor(cursorColor);
                     g2d.setStroke(new BasicStroke(3));
                     g2d.drawRect(x + 1, y + 1, CELL_SIZE - 2, CELL_SIZE - 2);
@@ -136,13 +173,16 @@ public class UI_Core extends JPanel implements KeyListener {
                 g2d.setColor(Color.WHITE);
                 String valueStr;
 
-                if (editingSequence) {
-                    // Display value from the INT grid (Sequence/Note)
-                    valueStr = String.format("%3d", sequenceGrid[r][c]);
-                } else {
-                    // Display value from the BYTE grid (Velocity). Display as unsigned (0-255).
-                    int unsignedValue = velocityGrid[r][c] & 0xFF;
+                if (editingColumn == Column.NOTE) {
+                    // Display the note
+                    valueStr = String.format("%3d", song.get_note(currentPattern, r, c));
+                } else if (editingColumn == Column.VELOCITY) {
+                    // Display the velocity as unsigned (0-255).
+                    int unsignedValue = song.get_velocity(currentPattern, r, c) & 0xFF;
                     valueStr = String.format("%3d", unsignedValue);
+                } else {
+                    // Display the pan from 0 (left) to 255 (right)
+                    valueStr = String.format("%3d", song.get_pan(currentPattern, r, c) + 128);
                 }
 
                 // Center the text
@@ -172,6 +212,13 @@ public class UI_Core extends JPanel implements KeyListener {
             cursorTimer.setRepeats(false);
             cursorTimer.start();
         }
+
+        if (frameEvent.shouldCommit()) {
+            frameEvent.view = "UI_Core";
+            frameEvent.rows = visibleRows();
+            frameEvent.cells = visibleRows() * NUM_COLS;
+            frameEvent.commit();
+        }
     }
 
     /**
@@ -185,7 +232,7 @@ public class UI_Core extends JPanel implements KeyListener {
                 selectedRow = Math.max(0, selectedRow - 1);
                 break;
             case KeyEvent.VK_DOWN:
-                selectedRow = Math.min(NUM_ROWS - 1, selectedRow + 1);
+                selectedRow = Math.min(visibleRows() - 1, selectedRow + 1);
                 break;
             case KeyEvent.VK_LEFT:
                 selectedCol = Math.max(0, selectedCol - 1);
@@ -210,14 +257,11 @@ public class UI_Core extends JPanel implements KeyListener {
     public void keyTyped(KeyEvent e) {
         char keyChar = e.getKeyChar();
 
-        // Prevent number input while the sequence is running
-        if (isSequenceRunning) {
-            if (keyChar != ' ' && Character.toUpperCase(keyChar) != 'V') {
-                // Ignore all other input
-                statusMessage = "Cannot edit while sequence is RUNNING. Press SPACE to stop.";
-                repaint();
-                return;
-            }
+        // Edits are sent to the playing sequencer, but the song cannot be swapped under it
+        if (isSequenceRunning && Character.toUpperCase(keyChar) == 'O') {
+            statusMessage = "Cannot open a project while the sequence is RUNNING. Press SPACE to stop.";
+            repaint();
+            return;
         }
 
         if (Character.isDigit(keyChar)) {
@@ -234,9 +278,15 @@ public class UI_Core extends JPanel implements KeyListener {
             // Enter: process the input and set the value
             processInput();
         } else if (Character.toUpperCase(keyChar) == 'V') {
-            // Toggle the active grid
-            editingSequence = !editingSequence;
+            // Move to the next column: notes, velocities, pans
+            editingColumn = Column.values()[(editingColumn.ordinal() + 1) % Column.values().length];
             updateStatusMessage();
+        } else if (Character.toUpperCase(keyChar) == 'M') {
+            dumpMetrics();
+        } else if (Character.toUpperCase(keyChar) == 'S') {
+            saveProject();
+        } else if (Character.toUpperCase(keyChar) == 'O') {
+            openProject();
         }
 
         repaint();
@@ -250,6 +300,74 @@ public class UI_Core extends JPanel implements KeyListener {
         // Empty implementation
     }
 
+    /**
+     * Saves the audio engine's render metrics and the line resizes to a text
+     * file in the working directory.
+     */
+    private void dumpMetrics() {
+        if (!audioSession.is_open()) {
+            statusMessage = "No metrics yet. Start the sequence first.";
+            return;
+        }
+        Path path = Path.of("uwu-metrics.txt");
+        try {
+            audioSession.dump_metrics(path);
+            statusMessage = "Saved render metrics to " + path.toAbsolutePath();
+        } catch (IOException ex) {
+            statusMessage = "Could not save metrics: " + ex.getMessage();
+        }
+    }
+
+    /**
+     * Rows of the current pattern shown in the grid.
+     */
+    private int visibleRows() {
+        return Math.min(NUM_ROWS, song.rows(currentPattern));
+    }
+
+    /**
+     * Saves the song. The first save writes the whole project; later ones
+     * only write the patterns that changed.
+     */
+    private void saveProject() {
+        try {
+            if (projectFile == null) {
+                projectFile = project_file.create(PROJECT_PATH, song);
+            } else {
+                projectFile.save();
+            }
+            statusMessage = "Saved project to " + PROJECT_PATH.toAbsolutePath();
+        } catch (IOException ex) {
+            statusMessage = "Could not save project: " + ex.getMessage();
+        }
+    }
+
+    /**
+     * Opens the saved project in place of the current song. Patterns are
+     * read from the file as they are shown or played.
+     */
+    private void openProject() {
+        try {
+            project_file opened = project_file.open(PROJECT_PATH);
+            if (opened.song().channels() != NUM_COLS) {
+                opened.close();
+                statusMessage = "Could not open project: it has " + opened.song().channels()
+                        + " channels, the editor shows " + NUM_COLS;
+                return;
+            }
+            if (projectFile != null) {
+                projectFile.close();
+            }
+            projectFile = opened;
+            song = opened.song();
+            currentPattern = song.order_length() > 0 ? song.order_at(0) : 0;
+            selectedRow = Math.min(selectedRow, visibleRows() - 1);
+            statusMessage = "Opened project " + PROJECT_PATH.toAbsolutePath();
+        } catch (IOException ex) {
+            statusMessage = "Could not open project: " + ex.getMessage();
+        }
+    }
+
     // --- NEW: Toggle Start/Stop Logic ---
     private void togglePlayStop() {
         if (isSequenceRunning) {
@@ -263,10 +381,17 @@ public class UI_Core extends JPanel implements KeyListener {
      * Stops the running audio sequence, if any.
      */
     private void stopSequence() {
-        if (sequenceTimer != null) {
-            sequenceTimer.cancel(); // Stops the timer and its scheduled tasks
-            sequenceTimer.purge();  // Removes cancelled tasks from the timer queue
-            sequenceTimer = null;
+        audio_engine engine = audioSession.engine();
+        if (isSequenceRunning && engine != null) {
+            System.out.printf("Output latency at stop: %.1f ms%n", engine.latency_ms());
+        }
+        // Back to silence; the line stays open, and the scheduler is no longer rendered once this returns
+        audioSession.stop();
+        meterTimer.stop();
+        playingSequencer = null;
+        if (renderScheduler != null) {
+            renderScheduler.close();
+            renderScheduler = null;
         }
         isSequenceRunning = false;
         System.out.println("--- Sequence STOPPED ---");
@@ -283,69 +408,29 @@ public class UI_Core extends JPanel implements KeyListener {
 
         try {
             // --- Sequence Setup ---
-            int SAMPLE_RATE = 44100;
-            // The wave_script and audio_buffer need to be initialized BEFORE the timer task
-            wave_script play_back = new sine();
-            audio_buffer a_buf = new audio_buffer(SAMPLE_RATE);
-            sequencer seq = new sequencer(play_back);
-
-            // 🌟 Map the two independent grids to the sequencer 🌟
-            seq.sequence = sequenceGrid;
-            seq.sequence_velocity = velocityGrid;
-
-            // Activate all sequence notes that have a non-zero velocity
-            for (int r = 0; r < NUM_ROWS; r++) {
-                for (int c = 0; c < NUM_COLS; c++) {
-                    // Velocity values are 0-255 (unsigned), so check against 0.
-                    if ((velocityGrid[r][c] & 0xFF) > 0) {
-                        seq.sequence_active[r][c] = true;
-                    } else {
-                        seq.sequence_active[r][c] = false;
-                    }
-                }
+            audioSession.open(); // Already open unless the device was missing at startup
+            // One script per channel, so the render scheduler can mix them on separate cores
+            wave_script[] channel_scripts = new wave_script[song.channels()];
+            for (int c = 0; c < channel_scripts.length; c++) {
+                channel_scripts[c] = new sine();
             }
-
-            // --- Sequence Playback Loop (TimerTask) ---
-            sequenceTimer = new java.util.Timer();
+            // The sequencer plays a copy of the song, so the audio thread never shares
+            // cells with this one; edits made while playing are posted to it
+            sequencer seq = new sequencer(song.copy(), channel_scripts);
+            playingSequencer = seq;
+            renderScheduler = new render_scheduler(seq);
+            render_scheduler scheduler = renderScheduler;
+
+            // --- Sequence Playback (audio_session) ---
+            // The session's engine renders small periods on its own thread, and the sequencer
+            // starts each row on the exact sample the tempo puts it on.
+            // Assuming 120 BPM, a 1/16th note is (60 / 120) / 4 = 125ms
+            seq.clock.set_tempo(120, 4);
+            seq.set_output(scheduler);
             isSequenceRunning = true;
             updateStatusMessage(); // Update state before starting
-
-            // This TimerTask will run in its own thread, keeping the UI responsive
-            TimerTask playbackTask = new TimerTask(){
-                private int currentStep = 0; // Tracks the current step in the sequence (0-15)
-
-                public void run(){
-                    // 1. Generate and play the audio for the current step
-                    try {
-                        byte[] data = play_back.generate(SAMPLE_RATE);
-                        a_buf.play_bytes(data);
-                    } catch (Exception e) {
-                        // Handle audio exceptions within the thread
-                        SwingUtilities.invokeLater(() -> {
-                            statusMessage = "Audio Playback Error: " + e.getMessage();
-                            stopSequence(); // Stop the sequence on error
-                            repaint();
-                        });
-                        return;
-                    }
-
-                    // 2. Advance the sequencer
-                    // NOTE: The original loop was `for (int i =0; i<16;i++){ play_audio(); seq.call_note_sequence(i); }`.
-                    // To make it a continuous loop, we'll run one step per Timer execution.
-                    seq.call_note_sequence(currentStep);
-
-                    // 3. Move to the next step (0-15 loop)
-                    currentStep = (currentStep + 1) % 16;
-
-                    // Optional: Update the UI to show the current playing step if needed,
-                    // but for now, we'll just keep the sequence running.
-                }
-            };
-
-            // Schedule the task to run repeatedly
-            // Assuming 120 BPM, a 1/16th note delay is (60 / 120) * 1000 / 4 = 125ms
-            long beatInterval = 125; // 125 milliseconds per 1/16th note at 120 BPM
-            sequenceTimer.scheduleAtFixedRate(playbackTask, 0, beatInterval);
+            audioSession.play(seq);
+            meterTimer.start();
 
             System.out.println("--- Sequence STARTED ---");
 
@@ -368,6 +453,30 @@ public class UI_Core extends JPanel implements KeyListener {
         System.out.println("The original 'play()' method is no longer used for SPACEBAR. Use togglePlayStop().");
     }
 
+    /**
+     * Writes the selected cell, and sends it to the sequencer if one is playing.
+     * @return false if the sequencer's edit queue was full, in which case nothing changed
+     */
+    private boolean setCell(long cell) {
+        if (playingSequencer != null
+                && !playingSequencer.post_cell(currentPattern, selectedRow, selectedCol, cell)) {
+            return false;
+        }
+        song.set_cell(currentPattern, selectedRow, selectedCol, cell);
+        return true;
+    }
+
+    /**
+     * Whether row r of the pattern on screen is the one playing.
+     */
+    private boolean isPlayingRow(int r) {
+        if (playingSequencer == null) {
+            return false;
+        }
+        sequencer.position position = playingSequencer.position();
+        return position.started() && position.pattern() == currentPattern && position.row() == r;
+    }
+
     /**
      * Handles processing the numerical input from the buffer, validating it,
      * and applying it to the selected cell in the active grid.
@@ -384,16 +493,24 @@ public class UI_Core extends JPanel implements KeyListener {
             if (value < 0 || value > 255) {
                 statusMessage = "Error: Value " + value + " is out of valid range (0-255).";
             } else {
-                if (editingSequence) {
-                    // Update the INT grid
-                    sequenceGrid[selectedRow][selectedCol] = value;
-                    statusMessage = String.format("Set SEQUENCE [%d][%d] to %d. Ready for next edit.",
-                            selectedRow, selectedCol, value);
+                long cell = song.cell(currentPattern, selectedRow, selectedCol);
+                String column;
+                if (editingColumn == Column.NOTE) {
+                    cell = pattern_store.with_note(cell, value);
+                    column = "SEQUENCE";
+                } else if (editingColumn == Column.PAN) {
+                    cell = pattern_store.with_pan(cell, (byte) (value - 128));
+                    column = "PAN";
+                } else {
+                    // The cast handles the signed storage. Cells with a non-zero velocity play.
+                    cell = pattern_store.with_active(pattern_store.with_velocity(cell, (byte) value), value > 0);
+                    column = "VELOCITY";
+                }
+                if (setCell(cell)) {
+                    statusMessage = String.format("Set %s [%d][%d] to %d. Ready for next edit.",
+                            column, selectedRow, selectedCol, value);
                 } else {
-                    // Update the BYTE grid (cast handles the signed storage)
-                    velocityGrid[selectedRow][selectedCol] = (byte) value;
-                    statusMessage = String.format("Set VELOCITY [%d][%d] to %d. Ready for next edit.",
-                            selectedRow, selectedCol, value);
+                    statusMessage = "Error: Too many edits waiting for playback. Try again.";
                 }
             }
         } catch (NumberFormatException ex) {
@@ -410,7 +527,7 @@ public class UI_Core extends JPanel implements KeyListener {
      */
     public static void main(String[] args) {
         SwingUtilities.invokeLater(() -> {
-            JFrame frame = new JFrame("UI Core - Dual Array Editor (Sequence INT / Velocity BYTE)");
+            JFrame frame = new JFrame("UI Core - Pattern Editor (Note / Velocity)");
             frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
             frame.setPreferredSize(new Dimension(800, 750));
 
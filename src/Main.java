@@ -1,7 +1,8 @@
 
 import audio_core.wave_script;
 import audio_core.presets.sine;
-import audio_core.audio_buffer;
+import audio_core.audio_session;
+import audio_core.pattern_store;
 import audio_core.sequencer;
 import javax.sound.sampled.LineUnavailableException;
 import javax.swing.*;
@@ -13,13 +14,14 @@ import ui.text_ui;
 //TODO: User interface
 //TODO: Documentation
 //TODO: Orginisation
-//TODO: Saving and loading
 void main() throws LineUnavailableException {
     int SAMPLE_RATE = 44100;
     wave_script play_back = new sine();
 
     //play_back.note_start(new Note(69));
-    audio_buffer a_buf = new audio_buffer(SAMPLE_RATE);
+    // Opened once; each Space press plays the sequence on the already primed line
+    audio_session session = audio_session.from_properties(SAMPLE_RATE);
+    session.open();
 
     sequencer seq = new sequencer(play_back);
 
@@ -28,14 +30,11 @@ void main() throws LineUnavailableException {
     text_ui ui = new text_ui();
     //text_ui.setup(console);
 
-    seq.sequence[2][1] = 69;
-    seq.sequence_active[2][1] = true;
-    seq.sequence[3][1] = 69;
-    seq.sequence_active[3][1] = true;
-    seq.sequence_active[3][2] = true;
-    seq.sequence[3][2] = 69+4;
+    seq.song.set_cell(0, 2, 1, pattern_store.pack(69, (byte) 0, (byte) 0, 0, true));
+    seq.song.set_cell(0, 3, 1, pattern_store.pack(69, (byte) 0, (byte) 0, 0, true));
+    seq.song.set_cell(0, 3, 2, pattern_store.pack(69+4, (byte) 0, (byte) 0, 0, true));
 
-    ui.notes[0]= seq.sequence;
+    ui.song = seq.song;
 
 
     final int[] progress = {0};
@@ -44,28 +43,27 @@ void main() throws LineUnavailableException {
     ui.console.setSpaceTaskFactory(() -> new Runnable(){
 
         boolean playing = true;
-        public void play(){
-        byte[] data = play_back.generate(SAMPLE_RATE);
-
-
-
-        a_buf.play_bytes(data);
-
-        }
 
         public void run(){
             running[0] = true;
-            for (int i =0; i<16;i++){
-                System.out.println(!Thread.currentThread().isInterrupted());
-                playing = !Thread.currentThread().isInterrupted();
-                playing = running[0];
+            // One row per second: 15 BPM at 4 rows per beat
+            seq.reset();
+            seq.clock.set_tempo(15, 4);
+            session.set_listener((frame_position, frames) ->
+                    progress[0] = (int) Math.max(0, seq.rows_played() - 1));
+            session.play(seq);
+            while (seq.rows_played() <= 16) {
+                playing = !Thread.currentThread().isInterrupted() && running[0];
                 if (playing==false){
-                    return;
+                    break;
+                }
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
-                play();
-                seq.call_note_sequence(i);
-                progress[0] = i;
             }
+            session.stop();
 
         }
     });
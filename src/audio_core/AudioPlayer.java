@@ -1,4 +1,5 @@
 package audio_core;
+import audio_core.jfr.SinkWriteEvent;
 import javax.sound.sampled.*;
 import java.io.ByteArrayInputStream;
 
@@ -6,35 +7,98 @@ import java.io.ByteArrayInputStream;
  * AudioPlayer class provides a utility to play raw byte arrays representing
  * audio data through the computer's sound buffer (SourceDataLine).
  *
- * It defaults to a common audio format: 44100 Hz, 16-bit, Mono, Signed, Little-Endian.
+ * The format is signed, little-endian PCM, stereo if the system supports it,
+ * at the deepest sample size it supports: 24-bit, else 16-bit, else 8-bit
+ * (see {@link #negotiateFormat}).
  */
-public class AudioPlayer {
+public class AudioPlayer implements AudioSink {
 
     private final AudioFormat format;
-    private SourceDataLine line;
+    private volatile SourceDataLine line;
+    private boolean primed = false; // Set once audio has been written since the line was opened or flushed
+    private volatile long underruns = 0;
+
+    /** Channel counts and sample sizes to try, best first. */
+    private static final int[] PREFERRED_CHANNELS = {2, 1};
+    private static final int[] PREFERRED_BITS = {24, 16, 8};
 
     /**
-     * Constructs an AudioPlayer with the specified sample rate, using 16-bit,
-     * mono, signed, little-endian format.
+     * Constructs an AudioPlayer with the specified sample rate, using the best
+     * format the system supports.
      * @param sampleRate The desired sample rate (e.g., 44100.0F).
      */
     public AudioPlayer(float sampleRate) {
-        // AudioFormat(float sampleRate, int sampleSizeInBits, int channels, boolean signed, boolean bigEndian)
-        this.format = new AudioFormat(
-                sampleRate,
-                8,
-                1, // Mono channel
-                true, // Signed PCM data
-                false // Little-endian byte order
-        );
+        this(negotiateFormat(sampleRate));
+    }
+
+    /**
+     * Constructs an AudioPlayer with a specific format, which must be mono or
+     * stereo signed little-endian PCM of 8, 16 or 24 bits.
+     */
+    public AudioPlayer(AudioFormat format) {
+        this.format = format;
         System.out.println("Initialized Audio Format: " + format);
     }
 
+    /**
+     * Returns the best PCM format a SourceDataLine supports at the sample
+     * rate: stereo before mono, then the deepest sample size. Falls back to
+     * 16-bit stereo if the system reports none of them (openLine then fails
+     * with a clear message).
+     */
+    public static AudioFormat negotiateFormat(float sampleRate) {
+        for (int channels : PREFERRED_CHANNELS) {
+            for (int bits : PREFERRED_BITS) {
+                AudioFormat candidate = AudioSink.pcmFormat(sampleRate, bits, channels);
+                if (AudioSystem.isLineSupported(new DataLine.Info(SourceDataLine.class, candidate))) {
+                    return candidate;
+                }
+            }
+        }
+        return AudioSink.defaultFormat(sampleRate);
+    }
+
+    @Override
+    public void open(int bufferSizeBytes) throws LineUnavailableException {
+        openLine(bufferSizeBytes);
+    }
+
+    /**
+     * Stops and closes the line at once, dropping anything still queued.
+     * Safe to call from another thread while write is blocked, which then returns.
+     */
+    @Override
+    public void close() {
+        SourceDataLine closing = line;
+        line = null;
+        if (closing != null) {
+            closing.stop();
+            closing.close();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        SourceDataLine current = line;
+        return current != null && current.isOpen();
+    }
+
     /**
      * Initializes and opens the SourceDataLine required for playback.
      * @throws LineUnavailableException If a suitable SourceDataLine is not available.
      */
     public void openLine() throws LineUnavailableException {
+        openLine(AudioSystem.NOT_SPECIFIED);
+    }
+
+    /**
+     * Initializes and opens the SourceDataLine with a requested buffer size.
+     * Smaller buffers give lower latency but need to be kept fed more often.
+     * @param bufferSizeBytes The requested line buffer size in bytes, or
+     *                        AudioSystem.NOT_SPECIFIED for the device default.
+     * @throws LineUnavailableException If a suitable SourceDataLine is not available.
+     */
+    public void openLine(int bufferSizeBytes) throws LineUnavailableException {
         // Define the desired data line info
         DataLine.Info info = new DataLine.Info(SourceDataLine.class, format);
 
@@ -45,15 +109,20 @@ public class AudioPlayer {
 
         // Get and open the SourceDataLine
         this.line = (SourceDataLine) AudioSystem.getLine(info);
-        this.line.open(format);
+        if (bufferSizeBytes == AudioSystem.NOT_SPECIFIED) {
+            this.line.open(format);
+        } else {
+            this.line.open(format, bufferSizeBytes);
+        }
+        this.primed = false;
         this.line.start(); // Start the line, preparing it to accept data
-        System.out.println("SourceDataLine opened and started successfully.");
+        System.out.println("SourceDataLine opened and started successfully (buffer " + line.getBufferSize() + " bytes).");
     }
 
     /**
      * Writes the raw audio data (byte array) to the sound buffer for playback.
      *
-     * @param audioData The byte array containing the 16-bit PCM audio data.
+     * @param audioData The byte array containing PCM audio data in {@link #getFormat()}.
      */
     public void playBytes(byte[] audioData) {
         if (line == null) {
@@ -69,8 +138,83 @@ public class AudioPlayer {
 
         // The write method handles sending the buffer data to the audio device
         // We write the entire array starting from index 0
+        SinkWriteEvent event = new SinkWriteEvent();
+        event.begin();
         int bytesWritten = line.write(audioData, 0, audioData.length);
-        System.out.println(bytesWritten + " bytes written to the audio buffer.");
+        commitWriteEvent(event, bytesWritten);
+    }
+
+    /**
+     * Writes part of a buffer to the line without logging, blocking until the
+     * line has room for all of it. Intended for the audio output thread.
+     *
+     * @return The number of bytes written.
+     */
+    @Override
+    public int write(byte[] audioData, int offset, int length) {
+        SourceDataLine line = this.line;
+        if (line == null) {
+            return 0;
+        }
+        // An empty line after the first write means the device ran dry
+        if (primed && line.available() >= line.getBufferSize()) {
+            underruns++;
+        }
+        primed = true;
+        SinkWriteEvent event = new SinkWriteEvent();
+        event.begin();
+        int written = line.write(audioData, offset, length);
+        commitWriteEvent(event, written);
+        return written;
+    }
+
+    private void commitWriteEvent(SinkWriteEvent event, int written) {
+        if (event.shouldCommit()) {
+            event.bytes = written;
+            event.frames = written / format.getFrameSize();
+            event.buffered = bufferedBytes();
+            event.commit();
+        }
+    }
+
+    @Override
+    public int getBufferSize() {
+        SourceDataLine line = this.line;
+        return line == null ? 0 : line.getBufferSize();
+    }
+
+    @Override
+    public long getUnderruns() {
+        return underruns;
+    }
+
+    /**
+     * Returns the number of bytes queued in the line that have not been played yet.
+     */
+    @Override
+    public int bufferedBytes() {
+        SourceDataLine line = this.line;
+        if (line == null) {
+            return 0;
+        }
+        return line.getBufferSize() - line.available();
+    }
+
+    /**
+     * Discards any audio queued in the line without waiting for it to play.
+     */
+    @Override
+    public void flush() {
+        SourceDataLine line = this.line;
+        if (line != null) {
+            line.flush();
+        }
+        primed = false;
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
     }
 
     /**
@@ -78,18 +222,18 @@ public class AudioPlayer {
      * and releases system resources.
      */
     public void closeLine() {
+        SourceDataLine line = this.line;
         if (line != null) {
             System.out.println("Waiting for playback to finish...");
             line.drain(); // Wait until all data in the buffer is played
-            line.stop();
-            line.close();
+            close();
             System.out.println("SourceDataLine closed.");
         }
     }
 
     /**
      * Main method for demonstrating the AudioPlayer by generating and playing
-     * a 2-second, 440 Hz sine wave tone.
+     * a 2-second, 440 Hz sine wave tone in the negotiated format.
      */
     public static void main(String[] args) {
         final int SAMPLE_RATE = 44100;
@@ -103,24 +247,20 @@ public class AudioPlayer {
             // 1. Open the audio line
             player.openLine();
 
-            // 2. Generate raw 16-bit PCM audio data (sine wave)
-            final int bytesPerSample = 2; // 16-bit = 2 bytes
-            final int numSamples = SAMPLE_RATE * DURATION_SECONDS;
-            final int bufferSize = numSamples * bytesPerSample;
-            byte[] audioData = new byte[bufferSize];
-
-            for (int i = 0; i < numSamples; i++) {
-                // Calculate the phase angle
-                double angle = 2.0 * Math.PI * HERTZ * i / SAMPLE_RATE;
-
-                // Calculate sample value (short is 16-bit, max value 32767)
-                short value = (short) (Math.sin(angle) * 32767);
-
-                // Convert short (16-bit) to two bytes (Little-Endian)
-                // Little-endian means the low byte goes first (at i*2)
-                audioData[i * 2] = (byte) (value & 0xFF);          // Low byte
-                audioData[i * 2 + 1] = (byte) ((value >> 8) & 0xFF); // High byte
+            // 2. Generate the tone as floats, the same on every channel, then
+            //    convert it to the line's format
+            AudioFormat format = player.getFormat();
+            final int channels = format.getChannels();
+            final int numFrames = SAMPLE_RATE * DURATION_SECONDS;
+            float[] samples = new float[numFrames * channels];
+            for (int i = 0; i < numFrames; i++) {
+                float value = (float) (Math.sin(2.0 * Math.PI * HERTZ * i / SAMPLE_RATE) * 0.5);
+                for (int c = 0; c < channels; c++) {
+                    samples[i * channels + c] = value;
+                }
             }
+            byte[] audioData = new byte[numFrames * format.getFrameSize()];
+            pcm_encoder.encode(samples, 0, audioData, 0, samples.length, format.getSampleSizeInBits());
             System.out.println("Generated " + audioData.length + " bytes of 440Hz tone data.");
 
             // 3. Play the generated bytes
@@ -0,0 +1,122 @@
+package audio_core;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+
+/**
+ * Destination for rendered PCM audio.
+ *
+ * AudioPlayer sends audio to the sound card. NullSink and CaptureSink need no
+ * sound hardware, so the full render loop can run on headless machines. Pick
+ * one at startup with the uwu.sink system property (see {@link #fromProperty}).
+ */
+public interface AudioSink {
+
+    /**
+     * The format that bytes passed to {@link #write} must be in.
+     */
+    AudioFormat getFormat();
+
+    /**
+     * Prepares the sink to accept audio.
+     * @param bufferSizeBytes The requested buffer size in bytes, or
+     *                        AudioSystem.NOT_SPECIFIED for the sink's default.
+     * @throws LineUnavailableException If the sink needs a device that is not available.
+     */
+    void open(int bufferSizeBytes) throws LineUnavailableException;
+
+    /**
+     * Writes audio to the sink. Device sinks block until there is room for all of it.
+     * @return The number of bytes accepted.
+     */
+    int write(byte[] audioData, int offset, int length);
+
+    /**
+     * Returns the number of bytes accepted but not played yet.
+     */
+    int bufferedBytes();
+
+    /**
+     * Returns the size of the sink's buffer in bytes, or 0 if it has none.
+     */
+    default int getBufferSize() {
+        return 0;
+    }
+
+    /**
+     * Returns how many times the sink has run out of audio while playing.
+     */
+    default long getUnderruns() {
+        return 0;
+    }
+
+    /**
+     * Returns whether the sink can still accept audio. Device sinks return
+     * false once their line has been closed, including by the system when the
+     * device goes away.
+     */
+    default boolean isOpen() {
+        return true;
+    }
+
+    /**
+     * Discards any audio accepted but not played yet.
+     */
+    void flush();
+
+    /**
+     * Releases the sink's resources.
+     */
+    void close();
+
+    /**
+     * The PCM format sinks use unless told otherwise: signed 16-bit, stereo, little-endian.
+     */
+    static AudioFormat defaultFormat(float sampleRate) {
+        return pcmFormat(sampleRate, 16, 2);
+    }
+
+    /**
+     * Signed, little-endian PCM with the given sample size and channel count.
+     * Stereo frames are interleaved left then right.
+     * @param bits 8, 16 or 24, the sizes pcm_encoder can produce
+     * @param channels 1 for mono or 2 for stereo
+     */
+    static AudioFormat pcmFormat(float sampleRate, int bits, int channels) {
+        if (!pcm_encoder.supports(bits)) {
+            throw new IllegalArgumentException("Unsupported sample size " + bits + ", expected 8, 16 or 24");
+        }
+        if (channels != 1 && channels != 2) {
+            throw new IllegalArgumentException("Unsupported channel count " + channels + ", expected 1 or 2");
+        }
+        // AudioFormat(float sampleRate, int sampleSizeInBits, int channels, boolean signed, boolean bigEndian)
+        return new AudioFormat(
+                sampleRate,
+                bits,
+                channels,
+                true, // Signed PCM data
+                false // Little-endian byte order
+        );
+    }
+
+    /**
+     * Creates the sink named by the uwu.sink system property: "device" (the
+     * default) for the sound card, "null" to discard audio, or "capture" to
+     * record up to uwu.capture_seconds (default 60) seconds in memory.
+     */
+    static AudioSink fromProperty(float sampleRate) {
+        String kind = System.getProperty("uwu.sink", "device");
+        switch (kind) {
+            case "device":
+                return new AudioPlayer(sampleRate);
+            case "null":
+                return new NullSink(sampleRate);
+            case "capture":
+                int seconds = Integer.getInteger("uwu.capture_seconds", 60);
+                AudioFormat format = defaultFormat(sampleRate);
+                return new CaptureSink(format, (int) (seconds * sampleRate) * format.getFrameSize());
+            default:
+                throw new IllegalArgumentException("Unknown audio sink '" + kind + "', expected device, null or capture");
+        }
+    }
+}
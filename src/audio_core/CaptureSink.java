@@ -0,0 +1,67 @@
+package audio_core;
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * AudioSink that records what is written to it into a buffer allocated up
+ * front. Once the buffer is full further audio is counted as dropped.
+ */
+public class CaptureSink implements AudioSink {
+
+    private final AudioFormat format;
+    private final byte[] buffer;
+    private volatile int captured = 0;
+    private volatile long droppedBytes = 0;
+
+    public CaptureSink(AudioFormat format, int capacityBytes) {
+        this.format = format;
+        this.buffer = new byte[capacityBytes];
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public void open(int bufferSizeBytes) {
+        captured = 0;
+        droppedBytes = 0;
+    }
+
+    @Override
+    public int write(byte[] audioData, int offset, int length) {
+        int count = Math.min(length, buffer.length - captured);
+        System.arraycopy(audioData, offset, buffer, captured, count);
+        captured += count;
+        droppedBytes += length - count;
+        return length;
+    }
+
+    @Override
+    public int bufferedBytes() {
+        return 0;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * The capture buffer; bytes 0 to {@link #getCapturedBytes()} - 1 hold the recording.
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int getCapturedBytes() {
+        return captured;
+    }
+
+    public long getDroppedBytes() {
+        return droppedBytes;
+    }
+}
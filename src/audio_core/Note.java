@@ -8,7 +8,7 @@ public class Note {
     public byte velocity; //-128: Velocity 0, 127: Velocity 255
     public byte pan; // -128: Left speaker, 127; Right speaker, 0; Both
     public boolean active; //Define if note is active or not
-    public int cycle; // TODO: DOCUMENT
+    public int cycle; // Not used for playback; wave_script tracks phase per voice
 
     public Note(int note, boolean active, byte velocity,int cycle){
         this.note = note;
@@ -0,0 +1,68 @@
+package audio_core;
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * AudioSink that discards everything written to it, counting how much
+ * arrived and how fast. It never blocks, so a render loop feeding it runs as
+ * fast as the CPU allows.
+ */
+public class NullSink implements AudioSink {
+
+    private final AudioFormat format;
+    private volatile long bytesWritten = 0;
+    private volatile long writes = 0;
+    private long openedNanos = System.nanoTime();
+
+    public NullSink(float sampleRate) {
+        this.format = AudioSink.defaultFormat(sampleRate);
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public void open(int bufferSizeBytes) {
+        bytesWritten = 0;
+        writes = 0;
+        openedNanos = System.nanoTime();
+    }
+
+    @Override
+    public int write(byte[] audioData, int offset, int length) {
+        // Only the audio output thread writes, so plain increments are safe
+        bytesWritten += length;
+        writes++;
+        return length;
+    }
+
+    @Override
+    public int bufferedBytes() {
+        return 0;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getWrites() {
+        return writes;
+    }
+
+    /**
+     * Audio accepted since the sink was opened, in frames per second of wall time.
+     */
+    public double getFramesPerSecond() {
+        double seconds = (System.nanoTime() - openedNanos) / 1e9;
+        return bytesWritten / (double) format.getFrameSize() / seconds;
+    }
+}
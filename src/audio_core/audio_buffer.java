@@ -1,19 +1,33 @@
 package audio_core;
 
+import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.LineUnavailableException;
 
 public class audio_buffer {
     public int SAMPLE_RATE;
-    public AudioPlayer player;
+    public AudioSink sink;
 
 
 
+    /**
+     * Opens the sink chosen by the uwu.sink system property (the sound card by default).
+     */
     public audio_buffer(int SAMPLE_RATE) throws LineUnavailableException {
+        this(SAMPLE_RATE, AudioSystem.NOT_SPECIFIED);
+    }
+    public audio_buffer(int SAMPLE_RATE, int line_buffer_frames) throws LineUnavailableException {
+        this(SAMPLE_RATE, AudioSink.fromProperty(SAMPLE_RATE), line_buffer_frames);
+    }
+    public audio_buffer(int SAMPLE_RATE, AudioSink sink, int line_buffer_frames) throws LineUnavailableException {
         this.SAMPLE_RATE = SAMPLE_RATE;
-        this.player = new AudioPlayer(this.SAMPLE_RATE);
-        player.openLine();
+        this.sink = sink;
+        if (line_buffer_frames == AudioSystem.NOT_SPECIFIED) {
+            sink.open(AudioSystem.NOT_SPECIFIED);
+        } else {
+            sink.open(line_buffer_frames * sink.getFormat().getFrameSize());
+        }
     }
     public void play_bytes(byte[] bytes){
-        player.playBytes(bytes);
+        sink.write(bytes, 0, bytes.length);
     }
 }
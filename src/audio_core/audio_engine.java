@@ -0,0 +1,316 @@
+package audio_core;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Streams a render_source to an AudioSink in small periods.
+ *
+ * A render thread renders one period at a time into a lock-free byte_ring, and
+ * an output thread moves whatever is in the ring into the sink. The
+ * ring only holds a few periods, so changes to the source are heard after a
+ * few periods rather than after a whole second of pre-rendered audio.
+ *
+ * The source can be swapped while the engine runs (see set_source), and with
+ * no source the engine plays silence, which keeps a device line primed
+ * between songs. On a swap, audio already queued from the old source is
+ * dropped, so the new one is heard after a single period.
+ *
+ * Periods are mixed in float, as interleaved stereo when the sink is stereo,
+ * and pass through the master bus (gain and limiter) before one pcm_encoder
+ * pass turns them into the sink's format.
+ */
+public class audio_engine {
+    public static final int MIN_PERIOD = 64;
+    public static final int MAX_PERIOD = 1024;
+    /** Periods the ring can hold between the render and output threads. */
+    public static final int RING_PERIODS = 4;
+    /** Periods to ask the line to buffer. */
+    public static final int LINE_PERIODS = 4;
+    private static final int SPIN_LIMIT = 200;
+
+    /**
+     * Called on the render thread before each period is rendered, e.g. to
+     * advance a sequencer.
+     */
+    public interface period_listener {
+        void before_period(long frame_position, int frames);
+    }
+
+    private final AudioSink sink;
+    private final int sample_rate;
+    private final int period_frames;
+    private final int frame_bytes;
+    private final int sample_bits;
+    private final int channels;
+    private final long period_nanos;
+    private final byte_ring ring;
+    private final float[] mix_buffer;
+    private final byte[] render_bytes;
+    private final byte[] output_bytes;
+
+    /** Gain and limiter applied to every period before it is converted to PCM. */
+    public final master_bus master;
+
+    /** Render time, load, sink fill and underrun measurements, always recorded. */
+    public final render_metrics metrics = new render_metrics();
+
+    private volatile period_listener listener;
+    // The source asked for, and the one the render thread is using
+    private volatile render_source requested_source;
+    private volatile render_source active_source;
+    // Ring position the output thread should discard up to after a source swap
+    private final AtomicLong skip_position = new AtomicLong();
+    private volatile Throwable failure;
+    private volatile boolean running = false;
+    private volatile long frames_rendered = 0;
+    private Thread render_thread;
+    private Thread output_thread;
+    // Set while a thread is parked waiting for the other, so it is only woken when needed
+    private final AtomicBoolean render_waiting = new AtomicBoolean();
+    private final AtomicBoolean output_waiting = new AtomicBoolean();
+
+    /**
+     * @param source what to play, or null for silence
+     * @param period_frames frames rendered per period, between MIN_PERIOD and MAX_PERIOD
+     */
+    public audio_engine(render_source source, AudioSink sink, int sample_rate, int period_frames){
+        if (period_frames < MIN_PERIOD || period_frames > MAX_PERIOD){
+            throw new IllegalArgumentException("Period must be between " + MIN_PERIOD + " and " + MAX_PERIOD
+                    + " frames, got " + period_frames);
+        }
+        this.requested_source = source;
+        this.active_source = source;
+        this.sink = sink;
+        this.sample_rate = sample_rate;
+        this.period_frames = period_frames;
+        this.frame_bytes = sink.getFormat().getFrameSize();
+        this.sample_bits = sink.getFormat().getSampleSizeInBits();
+        this.channels = sink.getFormat().getChannels();
+        if (!pcm_encoder.supports(sample_bits) || (channels != 1 && channels != 2)){
+            throw new IllegalArgumentException("Sink format " + sink.getFormat() + " is not mono or stereo 8, 16 or 24-bit PCM");
+        }
+        this.master = new master_bus(sample_rate);
+        this.period_nanos = period_frames * 1_000_000_000L / sample_rate;
+        this.ring = new byte_ring(period_frames * frame_bytes * RING_PERIODS);
+        this.mix_buffer = new float[period_frames * channels];
+        this.render_bytes = new byte[period_frames * frame_bytes];
+        this.output_bytes = new byte[period_frames * frame_bytes];
+    }
+
+    /**
+     * Period size from the uwu.period system property, 256 frames by default.
+     */
+    public static int default_period(){
+        return Integer.getInteger("uwu.period", 256);
+    }
+
+    /**
+     * Line buffer size to request for a period size, in frames.
+     */
+    public static int line_buffer_frames(int period_frames){
+        return period_frames * LINE_PERIODS;
+    }
+
+    public void set_listener(period_listener listener){
+        this.listener = listener;
+    }
+
+    /**
+     * Switches to another source, or to silence if source is null, at the
+     * start of the next period. Audio still queued from the old source is
+     * dropped. Returns at once; use await_source to wait for the switch.
+     */
+    public void set_source(render_source source){
+        this.requested_source = source;
+        LockSupport.unpark(render_thread);
+    }
+
+    /**
+     * Waits until the render thread has switched to source, after which it
+     * no longer touches the old one. Returns at once if the engine is not running.
+     * @return false if the switch did not happen within timeout_millis
+     */
+    public boolean await_source(render_source source, long timeout_millis){
+        long deadline = System.nanoTime() + timeout_millis * 1_000_000;
+        while (running && active_source != source){
+            if (System.nanoTime() > deadline){
+                return false;
+            }
+            LockSupport.parkNanos(period_nanos / 4);
+        }
+        return true;
+    }
+
+    /** The source the render thread is playing, or null while it plays silence. */
+    public render_source source(){
+        return active_source;
+    }
+
+    /**
+     * What made the output thread give up, such as the device going away,
+     * or null if nothing has.
+     */
+    public Throwable failure(){
+        return failure;
+    }
+
+    public synchronized void start(){
+        if (running) return;
+        running = true;
+        render_thread = new Thread(this::render_loop, "audio-render");
+        output_thread = new Thread(this::output_loop, "audio-output");
+        render_thread.setPriority(Thread.MAX_PRIORITY);
+        output_thread.setPriority(Thread.MAX_PRIORITY);
+        render_thread.setDaemon(true);
+        output_thread.setDaemon(true);
+        render_thread.start();
+        output_thread.start();
+    }
+
+    /**
+     * Stops both threads and drops any audio that has not been played yet.
+     */
+    public synchronized void stop(){
+        if (!running) return;
+        running = false;
+        LockSupport.unpark(render_thread);
+        LockSupport.unpark(output_thread);
+        try {
+            render_thread.join();
+            output_thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ring.clear();
+        sink.flush();
+    }
+
+    public boolean is_running(){
+        return running;
+    }
+
+    public int period_frames(){
+        return period_frames;
+    }
+
+    /** Frames rendered since the engine was created. */
+    public long frames_rendered(){
+        return frames_rendered;
+    }
+
+    /**
+     * Current output latency in milliseconds: the time from a period being
+     * rendered to it reaching the speakers. Counts the period being rendered,
+     * the audio waiting in the ring, and the audio queued in the sink.
+     */
+    public double latency_ms(){
+        long queued_frames = period_frames
+                + ring.readable() / frame_bytes
+                + sink.bufferedBytes() / frame_bytes;
+        return queued_frames * 1000.0 / sample_rate;
+    }
+
+    private void render_loop(){
+        int period_bytes = render_bytes.length;
+        long position = frames_rendered;
+        render_source source = active_source;
+        int idle = 0;
+        while (running){
+            render_source wanted = requested_source;
+            if (wanted != source){
+                source = wanted;
+                // Drop what the old source left queued, so the new one is heard next
+                skip_position.setRelease(ring.write_position());
+                active_source = source;
+                wake(output_waiting, output_thread);
+            }
+            if (ring.writable() < period_bytes){
+                idle = wait_idle(idle, render_waiting);
+                continue;
+            }
+            idle = 0;
+            long started;
+            if (source == null){
+                started = System.nanoTime();
+                Arrays.fill(mix_buffer, 0f);
+            } else {
+                period_listener current = listener;
+                if (current != null){
+                    current.before_period(position, period_frames);
+                }
+                started = System.nanoTime();
+                if (channels == 2){
+                    source.render_stereo(mix_buffer, 0, period_frames);
+                } else {
+                    source.render(mix_buffer, 0, period_frames);
+                }
+            }
+            master.process(mix_buffer, 0, period_frames, channels);
+            pcm_encoder.encode(mix_buffer, 0, render_bytes, 0, mix_buffer.length, sample_bits);
+            metrics.record_block(System.nanoTime() - started, period_nanos, source == null ? 0 : source.active_voices());
+            ring.write(render_bytes, 0, period_bytes);
+            wake(output_waiting, output_thread);
+            position += period_frames;
+            frames_rendered = position;
+            if (source == null && sink.getBufferSize() == 0){
+                // Sinks without a device never block, so pace silence to real time rather than spin
+                LockSupport.parkNanos(period_nanos);
+            }
+        }
+    }
+
+    private void output_loop(){
+        int idle = 0;
+        long skipped = 0;
+        while (running){
+            long skip = skip_position.getAcquire();
+            if (skip > skipped){
+                skipped = skip;
+                if (ring.skip_to(skip)){
+                    sink.flush();
+                }
+            }
+            int count = ring.read(output_bytes, 0, output_bytes.length);
+            if (count == 0){
+                idle = wait_idle(idle, output_waiting);
+                continue;
+            }
+            idle = 0;
+            wake(render_waiting, render_thread);
+            try {
+                // Blocks while a device sink is full, which paces both threads to the device
+                sink.write(output_bytes, 0, count);
+            } catch (RuntimeException e) {
+                // The device went away; an audio_session notices and reopens it
+                failure = e;
+                return;
+            }
+            metrics.record_sink(sink.bufferedBytes(), sink.getBufferSize(), sink.getUnderruns());
+        }
+    }
+
+    /**
+     * Waits for the other thread to make progress: spins briefly first, since
+     * the wait is usually short, then parks until woken or a fraction of a
+     * period has passed.
+     */
+    private int wait_idle(int idle, AtomicBoolean waiting){
+        if (idle < SPIN_LIMIT){
+            Thread.onSpinWait();
+        } else {
+            waiting.setRelease(true);
+            LockSupport.parkNanos(period_nanos / 4);
+            waiting.setRelease(false);
+        }
+        return idle + 1;
+    }
+
+    private static void wake(AtomicBoolean waiting, Thread thread){
+        if (waiting.getAcquire()){
+            LockSupport.unpark(thread);
+        }
+    }
+}
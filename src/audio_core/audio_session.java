@@ -0,0 +1,458 @@
+package audio_core;
+
+import audio_core.jfr.LineResizeEvent;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.function.Supplier;
+import javax.sound.sampled.LineUnavailableException;
+
+/**
+ * Keeps one audio device open for as long as the program runs, and plays
+ * sources on it with transport play and stop.
+ *
+ * Opening a line takes tens of milliseconds and the first periods written to
+ * a fresh line often glitch, so the session opens its sink once and starts an
+ * audio_engine that plays silence between songs, keeping the line primed.
+ * play and stop only swap the engine's source, which is heard after one
+ * period, and stop returns once the render thread has let go of the old
+ * source, so the caller can reset or reuse it straight away.
+ *
+ * A watchdog thread checks the device a few times a second. If the line was
+ * closed under it, the output thread failed, or no audio has moved for
+ * STALL_MILLIS (a device that vanished can block a write forever), the
+ * session closes what is left, opens a new sink from its factory and carries
+ * on with the same source, retrying with a growing delay while the device is
+ * unavailable.
+ *
+ * With latency bounds set (see set_latency_bounds), the session also tunes
+ * the period, and with it the line buffer, to the lowest size that plays
+ * without underruns. It starts at the largest size within the bounds, which
+ * is safe on any device, and works down. An underrun, counted by the sink
+ * from the line's available() or seen as the engine falling further behind
+ * the wall clock than its buffers can cover, doubles the size; after
+ * STABLE_MILLIS of playing a source without one the size is halved. Only
+ * time spent playing counts, since silence says nothing about a song. A size
+ * that underran, playing or not, is never tried again, nor is anything
+ * smaller, for as long as the session lasts. A line cannot change size
+ * while open, so each change reopens the device, and is only made while
+ * stopped: an underrun during a song is acted on once it stops, rather than
+ * cutting the song off. Each change is recorded (see resizes and
+ * dump_metrics) and sent to JFR as a uwu.LineResize event.
+ */
+public class audio_session implements AutoCloseable {
+    /** How often the watchdog checks the device. */
+    public static final long WATCH_MILLIS = 250;
+    /** How long the engine may go without rendering before the device is reopened. */
+    public static final long STALL_MILLIS = 1000;
+    /** Longest wait between attempts to reopen a device that is unavailable. */
+    public static final long MAX_RETRY_MILLIS = 5000;
+    /** How long the line must play a source without underruns before a smaller size is tried. */
+    public static final long STABLE_MILLIS = 10_000;
+    // How long stop waits for the render thread to let go of a source
+    private static final long SWITCH_TIMEOUT_MILLIS = 1000;
+    // Resizes kept for resizes() and dump_metrics
+    private static final int RESIZE_HISTORY = 256;
+
+    /**
+     * A change of period and line buffer size.
+     * @param reason "underrun", "stable" or "bounds"
+     * @param underruns underruns seen at the old size
+     */
+    public record resize(long time_millis, int from_period, int to_period, int line_buffer_frames,
+                         double line_latency_ms, String reason, long underruns) {
+    }
+
+    private final int sample_rate;
+    private volatile int period_frames;
+    private final Supplier<AudioSink> sink_factory;
+
+    // Periods the adaptive sizing may use, both powers of two; guarded by this
+    private boolean adaptive = false;
+    private int min_period;
+    private int max_period;
+    // Smallest period that ever underran, 0 if none; shrinking stays above it
+    private int underrun_floor = 0;
+    private final ArrayDeque<resize> resizes = new ArrayDeque<>();
+
+    // Guarded by this; the engine is also read without the lock, hence volatile
+    private AudioSink sink;
+    private volatile audio_engine engine;
+    private volatile render_source source;
+    private volatile audio_engine.period_listener listener;
+    private volatile boolean open = false;
+    private volatile long reopens = 0;
+    private Thread watchdog;
+
+    /**
+     * @param sink_factory makes a new, unopened sink each time the device is opened
+     */
+    public audio_session(int sample_rate, int period_frames, Supplier<AudioSink> sink_factory){
+        if (period_frames < audio_engine.MIN_PERIOD || period_frames > audio_engine.MAX_PERIOD){
+            throw new IllegalArgumentException("Period must be between " + audio_engine.MIN_PERIOD + " and "
+                    + audio_engine.MAX_PERIOD + " frames, got " + period_frames);
+        }
+        this.sample_rate = sample_rate;
+        this.period_frames = period_frames;
+        this.sink_factory = sink_factory;
+    }
+
+    /**
+     * A session on the sink named by the uwu.sink property. If the uwu.period
+     * property is set the period is fixed at it; otherwise it adapts between
+     * uwu.min_latency_ms (0 by default) and uwu.max_latency_ms (100 by
+     * default) of line buffer.
+     */
+    public static audio_session from_properties(int sample_rate){
+        audio_session session = new audio_session(sample_rate, audio_engine.default_period(),
+                () -> AudioSink.fromProperty(sample_rate));
+        if (System.getProperty("uwu.period") == null){
+            session.set_latency_bounds(Double.parseDouble(System.getProperty("uwu.min_latency_ms", "0")),
+                    Double.parseDouble(System.getProperty("uwu.max_latency_ms", "100")));
+        }
+        return session;
+    }
+
+    /**
+     * Tunes the period and line buffer automatically, keeping the line's
+     * latency between min_ms and max_ms as far as the engine's period limits
+     * allow. Before open, playback starts at the largest size; while open,
+     * a size outside the new bounds is corrected the next time nothing is playing.
+     */
+    public synchronized void set_latency_bounds(double min_ms, double max_ms){
+        if (!(min_ms >= 0 && max_ms >= min_ms)){
+            throw new IllegalArgumentException("Latency bounds must satisfy 0 <= min <= max, got "
+                    + min_ms + " and " + max_ms);
+        }
+        int low = audio_engine.MIN_PERIOD;
+        while (low < audio_engine.MAX_PERIOD && line_latency_ms(low) < min_ms){
+            low *= 2;
+        }
+        int high = low;
+        while (high < audio_engine.MAX_PERIOD && line_latency_ms(high * 2) <= max_ms){
+            high *= 2;
+        }
+        adaptive = true;
+        min_period = low;
+        max_period = high;
+        if (!open){
+            period_frames = high;
+        }
+    }
+
+    /** Stops tuning the period; it stays at its current size. */
+    public synchronized void fix_period(){
+        adaptive = false;
+    }
+
+    public synchronized boolean is_adaptive(){
+        return adaptive;
+    }
+
+    /** Latency of the line buffer used with a period, in milliseconds. */
+    public double line_latency_ms(int period_frames){
+        return audio_engine.line_buffer_frames(period_frames) * 1000.0 / sample_rate;
+    }
+
+    /**
+     * Opens the device and starts playing silence. Does nothing if already open.
+     * @throws LineUnavailableException if the device cannot be opened; the
+     *         session stays closed and open can be called again
+     */
+    public synchronized void open() throws LineUnavailableException {
+        if (open) return;
+        start_device();
+        open = true;
+        watchdog = new Thread(this::watch, "audio-session-watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+    }
+
+    public boolean is_open(){
+        return open;
+    }
+
+    /**
+     * Starts playing source from its current position, in place of whatever
+     * was playing. Heard after about one period.
+     */
+    public synchronized void play(render_source source){
+        this.source = source;
+        audio_engine current = engine;
+        if (current != null){
+            current.set_source(source);
+        }
+    }
+
+    /**
+     * Switches to silence and waits until the render thread no longer uses
+     * the source that was playing. The line stays open and primed.
+     */
+    public synchronized void stop(){
+        source = null;
+        audio_engine current = engine;
+        if (current != null){
+            current.set_source(null);
+            current.await_source(null, SWITCH_TIMEOUT_MILLIS);
+        }
+    }
+
+    /** Whether a source is playing, rather than silence. */
+    public boolean is_playing(){
+        return source != null;
+    }
+
+    /**
+     * Called before each period of the playing source, on the render thread.
+     * Kept when the device is reopened.
+     */
+    public synchronized void set_listener(audio_engine.period_listener listener){
+        this.listener = listener;
+        audio_engine current = engine;
+        if (current != null){
+            current.set_listener(listener);
+        }
+    }
+
+    /**
+     * The engine driving the device, for latency and metrics, or null while
+     * the session is closed or the device is being reopened. A reopened
+     * device gets a new engine, with fresh metrics.
+     */
+    public audio_engine engine(){
+        return engine;
+    }
+
+    public int sample_rate(){
+        return sample_rate;
+    }
+
+    /** Frames per period; changes when the device is resized. */
+    public int period_frames(){
+        return period_frames;
+    }
+
+    /** The most recent changes of line size, oldest first. */
+    public synchronized List<resize> resizes(){
+        return List.copyOf(resizes);
+    }
+
+    /**
+     * Writes the current engine's metrics, the period and line size, and the
+     * recent resizes to a text file.
+     */
+    public void dump_metrics(Path path) throws IOException {
+        audio_engine current = engine;
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(path))) {
+            if (current != null){
+                current.metrics.write(out);
+            }
+            out.printf("period_frames %d%n", period_frames);
+            out.printf("line_latency_ms %.1f%n", line_latency_ms(period_frames));
+            out.printf("reopens %d%n", reopens);
+            out.println("resizes");
+            for (resize r : resizes()){
+                out.printf("  %d %d -> %d frames, line %d frames (%.1f ms), %s, %d underruns%n",
+                        r.time_millis(), r.from_period(), r.to_period(), r.line_buffer_frames(),
+                        r.line_latency_ms(), r.reason(), r.underruns());
+            }
+        }
+    }
+
+    /** Times the device has been reopened after it failed or went away. */
+    public long reopen_count(){
+        return reopens;
+    }
+
+    /**
+     * Stops playback and closes the device, dropping anything not played yet.
+     */
+    @Override
+    public void close(){
+        Thread stopping;
+        synchronized (this) {
+            if (!open) return;
+            open = false;
+            source = null;
+            stop_device();
+            stopping = watchdog;
+            watchdog = null;
+        }
+        stopping.interrupt();
+    }
+
+    // Opens a new sink and starts an engine on it with the current source. Holds the lock.
+    private void start_device() throws LineUnavailableException {
+        AudioSink created = sink_factory.get();
+        created.open(audio_engine.line_buffer_frames(period_frames) * created.getFormat().getFrameSize());
+        audio_engine started;
+        try {
+            started = new audio_engine(source, created, sample_rate, period_frames);
+        } catch (RuntimeException e) {
+            created.close();
+            throw e;
+        }
+        started.set_listener(listener);
+        started.start();
+        sink = created;
+        engine = started;
+    }
+
+    // Holds the lock
+    private void stop_device(){
+        // Close the sink first: a write blocked on a dead device then returns, so the engine can stop
+        if (sink != null){
+            sink.close();
+            sink = null;
+        }
+        if (engine != null){
+            engine.stop();
+            engine = null;
+        }
+    }
+
+    private void watch(){
+        long last_check = System.nanoTime();
+        long last_frames = -1;
+        long last_underruns = 0;
+        // Set by an underrun, and acted on once nothing is playing
+        boolean grow = false;
+        long last_progress = last_check;
+        // Time spent playing a source since the last underrun or resize
+        long stable_nanos = 0;
+        long retry_millis = WATCH_MILLIS;
+        long next_attempt = 0;
+        boolean lost = false;
+        while (open){
+            try {
+                Thread.sleep(WATCH_MILLIS);
+            } catch (InterruptedException e) {
+                return; // closed
+            }
+            synchronized (this) {
+                if (!open) return;
+                long now = System.nanoTime();
+                long elapsed = now - last_check;
+                last_check = now;
+                audio_engine current = engine;
+                if (current != null){
+                    long frames = current.frames_rendered();
+                    long rendered = last_frames < 0 ? -1 : frames - last_frames;
+                    if (frames != last_frames){
+                        last_progress = now;
+                    }
+                    last_frames = frames;
+                    String problem = current.failure() != null ? "output failed: " + current.failure()
+                            : !sink.isOpen() ? "the line was closed"
+                            : now - last_progress > STALL_MILLIS * 1_000_000 ? "no audio for " + STALL_MILLIS + " ms"
+                            : null;
+                    if (problem != null){
+                        System.err.println("Audio device lost (" + problem + "), reopening.");
+                        stop_device();
+                        lost = true;
+                    } else {
+                        long underruns = sink.getUnderruns();
+                        boolean underran = underruns > last_underruns || fell_behind(rendered, elapsed);
+                        last_underruns = underruns;
+                        if (underran){
+                            if (underrun_floor == 0 || period_frames < underrun_floor){
+                                underrun_floor = period_frames;
+                            }
+                            stable_nanos = 0;
+                            grow = true;
+                        } else if (source != null){
+                            stable_nanos += elapsed;
+                        }
+                        // A resize reopens the line, so it waits for silence rather than cut a song off
+                        if (!adaptive || source != null){
+                            continue;
+                        }
+                        int target = target_period(grow, stable_nanos);
+                        grow = false;
+                        if (target == period_frames){
+                            continue;
+                        }
+                        resize_to(target, underruns);
+                    }
+                    next_attempt = now;
+                    retry_millis = WATCH_MILLIS;
+                }
+                if (now - next_attempt < 0){
+                    continue;
+                }
+                try {
+                    start_device();
+                    if (lost){
+                        reopens++;
+                        lost = false;
+                        System.err.println("Audio device reopened.");
+                    }
+                    last_frames = -1;
+                    last_underruns = 0;
+                    last_progress = System.nanoTime();
+                    stable_nanos = 0;
+                } catch (LineUnavailableException | RuntimeException e) {
+                    System.err.println("Could not reopen the audio device, retrying in " + retry_millis + " ms: "
+                            + e.getMessage());
+                    next_attempt = now + retry_millis * 1_000_000;
+                    retry_millis = Math.min(retry_millis * 2, MAX_RETRY_MILLIS);
+                }
+            }
+        }
+    }
+
+    // Whether the engine rendered so much less than real time over the last
+    // check that the line and ring, however full, must have run dry. A device
+    // that rendered nothing is left to the stall check.
+    private boolean fell_behind(long rendered, long elapsed_nanos){
+        if (rendered <= 0 || sink.getBufferSize() == 0){
+            return false;
+        }
+        long due = elapsed_nanos * sample_rate / 1_000_000_000;
+        long buffered = (long) period_frames * (audio_engine.LINE_PERIODS + audio_engine.RING_PERIODS + 1);
+        return due - rendered > buffered;
+    }
+
+    // The period the adaptive sizing wants next. Holds the lock.
+    private int target_period(boolean grow, long stable_nanos){
+        int period = period_frames;
+        if (period < min_period || period > max_period){
+            return Math.clamp(period, min_period, max_period);
+        }
+        if (grow){
+            return Math.min(period * 2, max_period);
+        }
+        int smaller = period / 2;
+        if (smaller < min_period || smaller <= underrun_floor || stable_nanos < STABLE_MILLIS * 1_000_000){
+            return period;
+        }
+        return smaller;
+    }
+
+    // Closes the device and records the change; the watchdog then opens it at the new size. Holds the lock.
+    private void resize_to(int period, long underruns){
+        int from = period_frames;
+        String reason = from < min_period || from > max_period ? "bounds" : period > from ? "underrun" : "stable";
+        stop_device();
+        period_frames = period;
+        resize change = new resize(System.currentTimeMillis(), from, period,
+                audio_engine.line_buffer_frames(period), line_latency_ms(period), reason, underruns);
+        if (resizes.size() == RESIZE_HISTORY){
+            resizes.removeFirst();
+        }
+        resizes.addLast(change);
+        LineResizeEvent event = new LineResizeEvent();
+        if (event.shouldCommit()){
+            event.fromPeriod = from;
+            event.toPeriod = period;
+            event.lineBufferFrames = change.line_buffer_frames();
+            event.lineLatency = (long) (change.line_latency_ms() * 1_000_000);
+            event.reason = reason;
+            event.underruns = underruns;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package audio_core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single-producer, single-consumer ring of bytes.
+ *
+ * One thread may write and one other thread may read at the same time. Read
+ * and write positions only ever grow; the writer publishes its position with
+ * release semantics after copying, and the reader acquires it before copying,
+ * so neither side needs a lock.
+ */
+public class byte_ring {
+    private final byte[] data;
+    private final int mask;
+    private final AtomicLong write_position = new AtomicLong();
+    private final AtomicLong read_position = new AtomicLong();
+
+    /**
+     * @param min_capacity capacity in bytes, rounded up to a power of two
+     */
+    public byte_ring(int min_capacity){
+        int capacity = Integer.highestOneBit(Math.max(1, min_capacity - 1)) << 1;
+        this.data = new byte[capacity];
+        this.mask = capacity - 1;
+    }
+
+    public int capacity(){
+        return data.length;
+    }
+
+    /** Bytes waiting to be read. */
+    public int readable(){
+        return (int) (write_position.getAcquire() - read_position.getAcquire());
+    }
+
+    /** Bytes that can be written without overwriting unread data. */
+    public int writable(){
+        return data.length - readable();
+    }
+
+    /**
+     * Copies up to length bytes into the ring. Producer thread only.
+     * @return the number of bytes written
+     */
+    public int write(byte[] source, int offset, int length){
+        long write = write_position.getPlain();
+        int count = Math.min(length, data.length - (int) (write - read_position.getAcquire()));
+        int start = (int) write & mask;
+        int first = Math.min(count, data.length - start);
+        System.arraycopy(source, offset, data, start, first);
+        System.arraycopy(source, offset + first, data, 0, count - first);
+        write_position.setRelease(write + count);
+        return count;
+    }
+
+    /**
+     * Copies up to length bytes out of the ring. Consumer thread only.
+     * @return the number of bytes read
+     */
+    public int read(byte[] target, int offset, int length){
+        long read = read_position.getPlain();
+        int count = Math.min(length, (int) (write_position.getAcquire() - read));
+        int start = (int) read & mask;
+        int first = Math.min(count, data.length - start);
+        System.arraycopy(data, start, target, offset, first);
+        System.arraycopy(data, 0, target, offset + first, count - first);
+        read_position.setRelease(read + count);
+        return count;
+    }
+
+    /**
+     * Total bytes written so far; a position that skip_to can later discard up to.
+     */
+    public long write_position(){
+        return write_position.getAcquire();
+    }
+
+    /**
+     * Discards unread bytes written before the given write position.
+     * Consumer thread only.
+     * @return whether anything was discarded
+     */
+    public boolean skip_to(long position){
+        long read = read_position.getPlain();
+        if (position <= read){
+            return false;
+        }
+        read_position.setRelease(Math.min(position, write_position.getAcquire()));
+        return true;
+    }
+
+    /**
+     * Discards everything waiting to be read. Consumer thread only.
+     */
+    public void clear(){
+        read_position.setRelease(write_position.getAcquire());
+    }
+}
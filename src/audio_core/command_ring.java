@@ -0,0 +1,86 @@
+package audio_core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single-producer, single-consumer queue of edit commands, from
+ * the UI thread to the audio thread.
+ *
+ * A command is an operation code, a pattern, an index within the pattern and
+ * a long value, stored in parallel arrays so that neither side allocates.
+ * Positions work as in byte_ring: the producer fills a slot and then
+ * publishes its position with release semantics, and the consumer acquires
+ * it before reading, so neither side needs a lock and the audio thread never
+ * waits for the UI.
+ */
+public class command_ring {
+    /** Replace a cell: index is row * channels + channel, value the packed cell. */
+    public static final int SET_CELL = 1;
+
+    /** Applies commands as they are drained. */
+    public interface handler {
+        void apply(int op, int pattern, int index, long value);
+    }
+
+    private final int[] ops;
+    private final int[] patterns;
+    private final int[] indices;
+    private final long[] values;
+    private final int mask;
+    private final AtomicLong write_position = new AtomicLong();
+    private final AtomicLong read_position = new AtomicLong();
+
+    /**
+     * @param min_capacity number of commands, rounded up to a power of two
+     */
+    public command_ring(int min_capacity){
+        int capacity = Integer.highestOneBit(Math.max(1, min_capacity - 1)) << 1;
+        this.ops = new int[capacity];
+        this.patterns = new int[capacity];
+        this.indices = new int[capacity];
+        this.values = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+    public int capacity(){
+        return ops.length;
+    }
+
+    /** Commands waiting to be applied. */
+    public int pending(){
+        return (int) (write_position.getAcquire() - read_position.getAcquire());
+    }
+
+    /**
+     * Queues a command. Producer thread only.
+     * @return false if the ring is full and the command was not queued
+     */
+    public boolean offer(int op, int pattern, int index, long value){
+        long write = write_position.getPlain();
+        if (write - read_position.getAcquire() >= ops.length){
+            return false;
+        }
+        int slot = (int) write & mask;
+        ops[slot] = op;
+        patterns[slot] = pattern;
+        indices[slot] = index;
+        values[slot] = value;
+        write_position.setRelease(write + 1);
+        return true;
+    }
+
+    /**
+     * Applies every queued command in order. Consumer thread only.
+     * @return the number of commands applied
+     */
+    public int drain(handler target){
+        long read = read_position.getPlain();
+        long write = write_position.getAcquire();
+        for (long position = read; position < write; position++){
+            int slot = (int) position & mask;
+            target.apply(ops[slot], patterns[slot], indices[slot], values[slot]);
+        }
+        read_position.setRelease(write);
+        return (int) (write - read);
+    }
+}
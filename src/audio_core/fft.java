@@ -0,0 +1,84 @@
+package audio_core;
+
+/**
+ * In-place radix-2 complex FFT of a fixed power-of-two size.
+ *
+ * Meant for building tables at load time, not for the audio thread: the
+ * twiddle factors and bit-reversal order are computed once per instance, and
+ * transforms do not allocate.
+ */
+public class fft {
+    public final int size;
+    private final double[] cos;
+    private final double[] sin;
+    private final int[] reversed;
+
+    public fft(int size){
+        if (size < 2 || Integer.bitCount(size) != 1){
+            throw new IllegalArgumentException("FFT size must be a power of two of at least 2, got " + size);
+        }
+        this.size = size;
+        this.cos = new double[size / 2];
+        this.sin = new double[size / 2];
+        for (int i = 0; i < size / 2; i++){
+            double angle = -2 * Math.PI * i / size;
+            cos[i] = Math.cos(angle);
+            sin[i] = Math.sin(angle);
+        }
+        int bits = Integer.numberOfTrailingZeros(size);
+        this.reversed = new int[size];
+        for (int i = 0; i < size; i++){
+            reversed[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+    }
+
+    /**
+     * Replaces re and im with their discrete Fourier transform, unscaled.
+     */
+    public void forward(double[] re, double[] im){
+        transform(re, im, 1);
+    }
+
+    /**
+     * Inverse of forward, scaled by 1 / size so that forward then inverse
+     * gives back the input.
+     */
+    public void inverse(double[] re, double[] im){
+        transform(re, im, -1);
+        double scale = 1.0 / size;
+        for (int i = 0; i < size; i++){
+            re[i] *= scale;
+            im[i] *= scale;
+        }
+    }
+
+    private void transform(double[] re, double[] im, int direction){
+        if (re.length != size || im.length != size){
+            throw new IllegalArgumentException("Expected " + size + " samples, got " + re.length + " and " + im.length);
+        }
+        for (int i = 0; i < size; i++){
+            int j = reversed[i];
+            if (j > i){
+                double t = re[i]; re[i] = re[j]; re[j] = t;
+                t = im[i]; im[i] = im[j]; im[j] = t;
+            }
+        }
+        for (int half = 1; half < size; half *= 2){
+            int step = size / (half * 2);
+            for (int start = 0; start < size; start += half * 2){
+                for (int k = 0; k < half; k++){
+                    double wr = cos[k * step];
+                    double wi = direction * sin[k * step];
+                    int a = start + k;
+                    int b = a + half;
+                    double tr = re[b] * wr - im[b] * wi;
+                    double ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+}
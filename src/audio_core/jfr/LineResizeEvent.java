@@ -0,0 +1,42 @@
+package audio_core.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The audio session changed its period and line buffer size.
+ */
+@Name("uwu.LineResize")
+@Label("Line Resize")
+@Description("The audio line was reopened with a different period and buffer size")
+@Category({"UWU", "Audio"})
+@StackTrace(false)
+public class LineResizeEvent extends Event {
+    @Label("From Period")
+    @Description("Frames per period before the change")
+    public int fromPeriod;
+
+    @Label("To Period")
+    @Description("Frames per period after the change")
+    public int toPeriod;
+
+    @Label("Line Buffer")
+    @Description("Frames the line buffers after the change")
+    public int lineBufferFrames;
+
+    @Label("Line Latency")
+    @Timespan(Timespan.NANOSECONDS)
+    public long lineLatency;
+
+    @Label("Reason")
+    public String reason;
+
+    @Label("Underruns")
+    @Description("Underruns seen at the old size")
+    public long underruns;
+}
@@ -0,0 +1,28 @@
+package audio_core.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One block rendered by a wave_script.
+ */
+@Name("uwu.RenderBlock")
+@Label("Render Block")
+@Description("A block of audio rendered by a wave_script")
+@Category({"UWU", "Audio"})
+@StackTrace(false)
+public class RenderBlockEvent extends Event {
+    @Label("Frames")
+    public int frames;
+
+    @Label("Voices")
+    @Description("Voices sounding during the block")
+    public int voices;
+
+    @Label("SIMD")
+    public boolean simd;
+}
@@ -0,0 +1,32 @@
+package audio_core.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One sequencer row played.
+ */
+@Name("uwu.SequencerStep")
+@Label("Sequencer Step")
+@Description("A sequencer row starting and stopping notes")
+@Category({"UWU", "Audio"})
+@StackTrace(false)
+public class SequencerStepEvent extends Event {
+    @Label("Row")
+    public int row;
+
+    @Label("Frame Position")
+    @Description("Frame the row started on")
+    public long frame;
+
+    @Label("Notes Changed")
+    public int notesChanged;
+
+    @Label("Voices")
+    @Description("Voices sounding after the step")
+    public int voices;
+}
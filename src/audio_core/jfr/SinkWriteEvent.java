@@ -0,0 +1,32 @@
+package audio_core.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One write to the audio device. The duration includes any time spent
+ * blocked waiting for room in the line.
+ */
+@Name("uwu.SinkWrite")
+@Label("Sink Write")
+@Description("Audio written to the sound card line")
+@Category({"UWU", "Audio"})
+@StackTrace(false)
+public class SinkWriteEvent extends Event {
+    @Label("Frames")
+    public int frames;
+
+    @Label("Bytes")
+    @DataAmount
+    public int bytes;
+
+    @Label("Buffered")
+    @Description("Bytes queued in the line after the write")
+    @DataAmount
+    public int buffered;
+}
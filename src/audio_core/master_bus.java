@@ -0,0 +1,126 @@
+package audio_core;
+
+/**
+ * Master gain and peak limiter, applied to each mixed block before it is
+ * converted to PCM.
+ *
+ * Channels are summed in float, so the mix can go past full scale: four notes
+ * at full velocity peak near 4.0. The limiter measures each block's peak
+ * before applying any gain, so the whole block acts as look-ahead: a louder
+ * block is turned down from its first sample and never goes over the
+ * ceiling. The gain then recovers over release_seconds, ramped across each
+ * block so it does not click.
+ */
+public class master_bus {
+    /** Ceiling of the limiter, just under full scale. */
+    public static final float DEFAULT_CEILING = 0.98f;
+    public static final float DEFAULT_RELEASE_SECONDS = 0.2f;
+
+    private final int sample_rate;
+    private volatile float gain = 1f;
+    private volatile float ceiling = DEFAULT_CEILING;
+    private volatile float release_seconds = DEFAULT_RELEASE_SECONDS;
+    // Gain the limiter applied at the end of the last block; render thread only
+    private float limit_gain = 1f;
+    private volatile float gain_reduction = 1f;
+
+    public master_bus(int sample_rate){
+        this.sample_rate = sample_rate;
+    }
+
+    /** Linear gain applied before the limiter. */
+    public void set_gain(float gain){
+        if (!(gain >= 0)){
+            throw new IllegalArgumentException("Gain must not be negative, got " + gain);
+        }
+        this.gain = gain;
+    }
+
+    public float gain(){
+        return gain;
+    }
+
+    public void set_ceiling(float ceiling){
+        if (!(ceiling > 0 && ceiling <= 1)){
+            throw new IllegalArgumentException("Ceiling must be in (0, 1], got " + ceiling);
+        }
+        this.ceiling = ceiling;
+    }
+
+    public void set_release_seconds(float seconds){
+        if (!(seconds > 0)){
+            throw new IllegalArgumentException("Release must be positive, got " + seconds);
+        }
+        this.release_seconds = seconds;
+    }
+
+    /** How far the limiter has turned the last block down, in dB (0 or negative). */
+    public double gain_reduction_db(){
+        return 20 * Math.log10(gain_reduction);
+    }
+
+    /** Forgets the limiter state, e.g. when playback restarts. */
+    public void reset(){
+        limit_gain = 1f;
+        gain_reduction = 1f;
+    }
+
+    /**
+     * Applies the gain and limiter to out[offset] to out[offset + frames - 1]
+     * in place. Render thread only.
+     */
+    public void process(float[] out, int offset, int frames){
+        process(out, offset, frames, 1);
+    }
+
+    /**
+     * Applies the gain and limiter to frames of interleaved audio with the
+     * given channel count, in place. Every channel gets the same gain, so a
+     * stereo image does not shift when the limiter acts. Render thread only.
+     */
+    public void process(float[] out, int offset, int frames, int channels){
+        if (frames <= 0){
+            return;
+        }
+        float input_gain = gain;
+        int samples = frames * channels;
+        int end = offset + samples;
+        float peak = 0f;
+        for (int i = offset; i < end; i++){
+            peak = Math.max(peak, Math.abs(out[i]));
+        }
+        peak *= input_gain;
+        float target = peak > ceiling ? ceiling / peak : 1f;
+
+        float start = limit_gain;
+        float finish;
+        if (target <= start){
+            // Attack: the whole block at the lower gain
+            start = target;
+            finish = target;
+        } else {
+            float keep = (float) Math.exp(-frames / (release_seconds * sample_rate));
+            finish = Math.min(target, 1f - (1f - start) * keep);
+        }
+        limit_gain = finish;
+        gain_reduction = finish;
+
+        if (start == 1f && finish == 1f){
+            if (input_gain != 1f){
+                for (int i = offset; i < end; i++){
+                    out[i] *= input_gain;
+                }
+            }
+            return;
+        }
+        // Ramp towards finish; it never passes target, so no sample goes over the ceiling
+        float from = start * input_gain;
+        float step = (finish - start) * input_gain / frames;
+        for (int f = 0, i = offset; f < frames; f++){
+            float frame_gain = from + step * (f + 1);
+            for (int c = 0; c < channels; c++, i++){
+                out[i] *= frame_gain;
+            }
+        }
+    }
+}
@@ -0,0 +1,425 @@
+package audio_core;
+
+import audio_core.presets.sampler;
+import audio_core.presets.sine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Imports ProTracker MOD and FastTracker II XM modules.
+ *
+ * The file is memory-mapped and decoded in one pass, straight into the cells
+ * of a pattern_store and the float data of each module_sample. Notes become
+ * MIDI note numbers and volumes become velocities. Tracker effects are kept
+ * in the effect field as command << 8 | parameter, but only set-volume is
+ * acted on so far.
+ *
+ * A tracker keeps a note playing until the channel gets a new one, but the
+ * sequencer stops a channel's note when the cell's note differs. So empty
+ * cells are filled with the note still playing and left inactive. This is
+ * done within each pattern only, as patterns can be played in any order.
+ * Repeating the same note does not retrigger it, because the sequencer only
+ * restarts a channel when its note changes.
+ */
+public class module_importer {
+
+    /** A decoded module. */
+    public static class module {
+        public final String title;
+        public final pattern_store song;
+        /** Sample for instrument number i + 1; entries may be null for empty instruments. */
+        public final module_sample[] samples;
+        public final int initial_speed;
+        public final int initial_bpm;
+
+        module(String title, pattern_store song, module_sample[] samples, int speed, int bpm){
+            this.title = title;
+            this.song = song;
+            this.samples = samples;
+            this.initial_speed = speed;
+            this.initial_bpm = bpm;
+        }
+
+        /**
+         * A sampler for each channel, playing the first instrument the channel
+         * uses. The sequencer plays one script per channel, so instrument
+         * changes within a channel are not heard.
+         */
+        public wave_script[] channel_scripts(){
+            wave_script[] scripts = new wave_script[song.channels()];
+            for (int c = 0; c < scripts.length; c++){
+                module_sample sample = first_sample(c);
+                scripts[c] = sample != null ? new sampler(sample) : new sine();
+            }
+            return scripts;
+        }
+
+        private module_sample first_sample(int channel){
+            for (int i = 0; i < song.order_length(); i++){
+                int pattern = song.order_at(i);
+                for (int row = 0; row < song.rows(pattern); row++){
+                    int instrument = pattern_store.instrument(song.cell(pattern, row, channel));
+                    if (instrument > 0 && instrument <= samples.length && samples[instrument - 1] != null){
+                        return samples[instrument - 1];
+                    }
+                }
+            }
+            return null;
+        }
+
+        /** Sets the clock to the module's starting speed, in ticks per row, and BPM. */
+        public void apply_tempo(sequencer_clock clock){
+            // A row lasts speed * 2.5 / bpm seconds
+            clock.set_tempo(6.0 * initial_bpm / initial_speed, 4);
+        }
+    }
+
+    /** The outcome of importing one file in a bulk import. */
+    public record result(Path path, module module, String error) {
+        public boolean ok(){
+            return module != null;
+        }
+    }
+
+    private static final byte[] XM_ID = "Extended Module: ".getBytes(StandardCharsets.US_ASCII);
+    private static final int MOD_ROWS = 64;
+    private static final int MOD_SAMPLES = 31;
+    private static final int MOD_SIGNATURE = 1080;
+    private static final int MOD_PATTERNS_START = 1084;
+    private static final int XM_KEY_OFF = 97;
+    private static final int EFFECT_SET_VOLUME = 0x0C;
+
+    private module_importer() {
+    }
+
+    /**
+     * Imports a MOD or XM file, telling them apart by content.
+     */
+    public static module load(Path path) throws IOException {
+        MappedByteBuffer map;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            return is_xm(map) ? read_xm(map) : read_mod(map);
+        } catch (IndexOutOfBoundsException | java.nio.BufferUnderflowException e) {
+            throw new IOException(path + " is truncated or damaged", e);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(path + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Imports many files in parallel on the common fork-join pool. A file that
+     * fails to import gives a result with an error instead of stopping the rest.
+     * @return one result per path, in the same order
+     */
+    public static List<result> load_all(List<Path> paths){
+        return paths.parallelStream().map(path -> {
+            try {
+                return new result(path, load(path), null);
+            } catch (IOException | RuntimeException e) {
+                return new result(path, null, e.getMessage());
+            }
+        }).toList();
+    }
+
+    // --- ProTracker MOD ---
+
+    private static module read_mod(ByteBuffer in) throws IOException {
+        in.order(ByteOrder.BIG_ENDIAN);
+        int channels = mod_channels(ascii(in, MOD_SIGNATURE, 4));
+        if (channels == 0){
+            throw new IOException("Not a MOD or XM module");
+        }
+        String title = ascii(in, 0, 20);
+
+        module_sample[] samples = new module_sample[MOD_SAMPLES];
+        int song_length = in.get(950) & 0xFF;
+        int patterns = 0;
+        for (int i = 0; i < 128; i++){
+            patterns = Math.max(patterns, (in.get(952 + i) & 0xFF) + 1);
+        }
+
+        pattern_store song = new pattern_store(channels);
+        int[] volume = new int[MOD_SAMPLES + 1];
+        for (int s = 0; s < MOD_SAMPLES; s++){
+            volume[s + 1] = Math.min(64, in.get(20 + s * 30 + 25) & 0xFF);
+        }
+        int position = MOD_PATTERNS_START;
+        for (int p = 0; p < patterns; p++){
+            song.add_pattern(MOD_ROWS);
+            long[] cells = song.cells(p);
+            int[] last_note = new int[channels];
+            int[] last_instrument = new int[channels];
+            for (int row = 0, cell = 0; row < MOD_ROWS; row++){
+                for (int c = 0; c < channels; c++, cell++, position += 4){
+                    int b0 = in.get(position) & 0xFF;
+                    int b1 = in.get(position + 1) & 0xFF;
+                    int b2 = in.get(position + 2) & 0xFF;
+                    int param = in.get(position + 3) & 0xFF;
+                    int instrument = (b0 & 0xF0) | (b2 >> 4);
+                    int period = (b0 & 0x0F) << 8 | b1;
+                    int effect = (b2 & 0x0F) << 8 | param;
+                    if (instrument > 0){
+                        last_instrument[c] = instrument;
+                    }
+                    // Amiga channels are panned left, right, right, left
+                    byte pan = (c & 3) == 0 || (c & 3) == 3 ? (byte) -128 : (byte) 127;
+                    if (period > 0){
+                        int note = 60 + (int) Math.round(12 * Math.log(428.0 / period) / Math.log(2));
+                        int vol = (b2 & 0x0F) == EFFECT_SET_VOLUME ? Math.min(64, param)
+                                : volume[Math.min(last_instrument[c], MOD_SAMPLES)];
+                        cells[cell] = pattern_store.with_instrument(
+                                pattern_store.pack(note, velocity(vol), pan, effect, true), last_instrument[c]);
+                        last_note[c] = note;
+                    } else {
+                        cells[cell] = pattern_store.with_instrument(
+                                pattern_store.pack(last_note[c], (byte) 0, pan, effect, false), instrument);
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < song_length; i++){
+            song.add_order(in.get(952 + i) & 0xFF);
+        }
+
+        for (int s = 0; s < MOD_SAMPLES; s++){
+            int header = 20 + s * 30;
+            int length = (in.getShort(header + 22) & 0xFFFF) * 2;
+            int finetune = in.get(header + 24) << 28 >> 28; // signed nibble, in 1/8 semitones
+            int loop_start = (in.getShort(header + 26) & 0xFFFF) * 2;
+            int loop_length = (in.getShort(header + 28) & 0xFFFF) * 2;
+            // Some files end early; keep whatever sample data is there
+            length = Math.max(0, Math.min(length, in.limit() - position));
+            if (length > 0){
+                float[] data = new float[length];
+                for (int i = 0; i < length; i++){
+                    data[i] = in.get(position + i) / 128f;
+                }
+                if (loop_length <= 2 || loop_start >= length){
+                    loop_start = 0;
+                    loop_length = 0;
+                }
+                loop_length = Math.min(loop_length, length - loop_start);
+                samples[s] = new module_sample(ascii(in, header, 22), data, loop_start, loop_length,
+                        volume[s + 1], finetune * 16, 0, (byte) 0);
+            }
+            position += length;
+        }
+        return new module(title, song, samples, 6, 125);
+    }
+
+    private static int mod_channels(String signature){
+        switch (signature){
+            case "M.K.", "M!K!", "M&K!", "FLT4", "4CHN":
+                return 4;
+            case "FLT8", "OCTA", "CD81":
+                return 8;
+        }
+        if (signature.length() == 4 && Character.isDigit(signature.charAt(0))){
+            if (signature.endsWith("CHN")){
+                return signature.charAt(0) - '0';
+            }
+            if ((signature.endsWith("CH") || signature.endsWith("CN")) && Character.isDigit(signature.charAt(1))){
+                return Integer.parseInt(signature.substring(0, 2));
+            }
+        }
+        return 0;
+    }
+
+    // --- FastTracker II XM ---
+
+    private static boolean is_xm(ByteBuffer in){
+        if (in.limit() < 80){
+            return false;
+        }
+        for (int i = 0; i < XM_ID.length; i++){
+            if (in.get(i) != XM_ID[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static module read_xm(ByteBuffer in) throws IOException {
+        in.order(ByteOrder.LITTLE_ENDIAN);
+        String title = ascii(in, 17, 20);
+        int header_size = in.getInt(60);
+        int song_length = in.getShort(64) & 0xFFFF;
+        int channels = in.getShort(68) & 0xFFFF;
+        int patterns = in.getShort(70) & 0xFFFF;
+        int instruments = in.getShort(72) & 0xFFFF;
+        int speed = Math.max(1, in.getShort(76) & 0xFFFF);
+        int bpm = Math.max(32, in.getShort(78) & 0xFFFF);
+        if (channels < 1 || channels > 64){
+            throw new IOException("XM module has " + channels + " channels");
+        }
+
+        // Instrument headers come after the patterns, but their default
+        // volumes and panning are needed to decode notes. Patterns are
+        // located first and decoded once the instruments are read.
+        int position = 60 + header_size;
+        int[] pattern_start = new int[patterns];
+        for (int p = 0; p < patterns; p++){
+            pattern_start[p] = position;
+            position += in.getInt(position) + (in.getShort(position + 7) & 0xFFFF);
+        }
+        module_sample[] samples = new module_sample[instruments];
+        for (int i = 0; i < instruments; i++){
+            position = read_xm_instrument(in, position, samples, i);
+        }
+
+        pattern_store song = new pattern_store(channels);
+        for (int p = 0; p < patterns; p++){
+            read_xm_pattern(in, pattern_start[p], song, samples);
+        }
+        for (int i = 0; i < Math.min(song_length, 256); i++){
+            int pattern = in.get(80 + i) & 0xFF;
+            if (pattern < patterns){
+                song.add_order(pattern);
+            }
+        }
+        return new module(title, song, samples, speed, bpm);
+    }
+
+    private static void read_xm_pattern(ByteBuffer in, int start, pattern_store song, module_sample[] samples){
+        int channels = song.channels();
+        int rows = Math.max(1, in.getShort(start + 5) & 0xFFFF);
+        int packed_size = in.getShort(start + 7) & 0xFFFF;
+        int p = song.add_pattern(rows);
+        long[] cells = song.cells(p);
+        if (packed_size == 0){
+            return;
+        }
+        int[] last_note = new int[channels];
+        int[] last_instrument = new int[channels];
+        int position = start + in.getInt(start);
+        for (int cell = 0; cell < cells.length; cell++){
+            int c = cell % channels;
+            int flags = in.get(position) & 0xFF;
+            int note = 0, instrument = 0, volume = 0, type = 0, param = 0;
+            if ((flags & 0x80) != 0){
+                position++;
+                if ((flags & 0x01) != 0) note = in.get(position++) & 0xFF;
+                if ((flags & 0x02) != 0) instrument = in.get(position++) & 0xFF;
+                if ((flags & 0x04) != 0) volume = in.get(position++) & 0xFF;
+                if ((flags & 0x08) != 0) type = in.get(position++) & 0xFF;
+                if ((flags & 0x10) != 0) param = in.get(position++) & 0xFF;
+            } else {
+                note = flags;
+                instrument = in.get(position + 1) & 0xFF;
+                volume = in.get(position + 2) & 0xFF;
+                type = in.get(position + 3) & 0xFF;
+                param = in.get(position + 4) & 0xFF;
+                position += 5;
+            }
+            if (instrument > 0){
+                last_instrument[c] = instrument;
+            }
+            int effect = type << 8 | param;
+            module_sample sample = last_instrument[c] > 0 && last_instrument[c] <= samples.length
+                    ? samples[last_instrument[c] - 1] : null;
+            byte pan = sample != null ? sample.pan : 0;
+            if (volume >= 0xC0 && volume <= 0xCF){
+                pan = (byte) (((volume & 0x0F) << 4) - 128);
+            }
+            if (note > 0 && note < XM_KEY_OFF){
+                int midi = note + 11;
+                int vol = volume >= 0x10 && volume <= 0x50 ? volume - 0x10
+                        : type == EFFECT_SET_VOLUME ? Math.min(64, param)
+                        : sample != null ? sample.volume : 64;
+                cells[cell] = pattern_store.with_instrument(
+                        pattern_store.pack(midi, velocity(vol), pan, effect, true), last_instrument[c]);
+                last_note[c] = midi;
+            } else {
+                if (note == XM_KEY_OFF){
+                    last_note[c] = 0;
+                }
+                cells[cell] = pattern_store.with_instrument(
+                        pattern_store.pack(last_note[c], (byte) 0, pan, effect, false), instrument);
+            }
+        }
+    }
+
+    private static int read_xm_instrument(ByteBuffer in, int start, module_sample[] samples, int index){
+        int size = in.getInt(start);
+        String name = ascii(in, start + 4, 22);
+        int sample_count = in.getShort(start + 27) & 0xFFFF;
+        int position = start + size;
+        if (sample_count == 0){
+            return position;
+        }
+        int header_size = in.getInt(start + 29);
+        // The sample the keymap plays for C-4, used for every note
+        int chosen = Math.min(in.get(start + 33 + 48) & 0xFF, sample_count - 1);
+
+        int data = position + sample_count * header_size;
+        for (int s = 0; s < sample_count; s++){
+            int header = position + s * header_size;
+            int bytes = in.getInt(header);
+            int type = in.get(header + 14) & 0xFF;
+            boolean sixteen_bit = (type & 0x10) != 0;
+            if (s == chosen){
+                int width = sixteen_bit ? 2 : 1;
+                int length = Math.max(0, Math.min(bytes, in.limit() - data)) / width;
+                int loop_start = in.getInt(header + 4) / width;
+                int loop_length = (type & 0x03) == 0 ? 0 : in.getInt(header + 8) / width;
+                if (loop_start < 0 || loop_start >= length || loop_length <= 0){
+                    loop_start = 0;
+                    loop_length = 0;
+                }
+                loop_length = Math.min(loop_length, length - loop_start);
+                float[] pcm = new float[length];
+                // Sample data is stored as deltas from the previous sample
+                if (sixteen_bit){
+                    short value = 0;
+                    for (int i = 0; i < length; i++){
+                        value += in.getShort(data + i * 2);
+                        pcm[i] = value / 32768f;
+                    }
+                } else {
+                    byte value = 0;
+                    for (int i = 0; i < length; i++){
+                        value += in.get(data + i);
+                        pcm[i] = value / 128f;
+                    }
+                }
+                if (length > 0){
+                    samples[index] = new module_sample(name, pcm, loop_start, loop_length,
+                            Math.min(64, in.get(header + 12) & 0xFF), in.get(header + 13),
+                            in.get(header + 16), (byte) ((in.get(header + 15) & 0xFF) - 128));
+                }
+            }
+            data += bytes;
+        }
+        return data;
+    }
+
+    // --- Helpers ---
+
+    // Volume 0-64 as a velocity, so that note_start's amplitude is volume / 64
+    private static byte velocity(int volume){
+        return (byte) (Math.round(volume * 127 / 64f) - 127);
+    }
+
+    private static String ascii(ByteBuffer in, int start, int length){
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++){
+            int c = in.get(start + i) & 0xFF;
+            if (c == 0){
+                break;
+            }
+            text.append(c >= 32 && c < 127 ? (char) c : '?');
+        }
+        return text.toString().trim();
+    }
+}
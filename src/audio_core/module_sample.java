@@ -0,0 +1,50 @@
+package audio_core;
+
+/**
+ * A sampled instrument imported from a tracker module.
+ *
+ * Pitch follows the tracker convention: with no relative note or finetune,
+ * MIDI note 60 plays the sample back at 8363 Hz.
+ */
+public class module_sample {
+    public static final double C4_RATE = 8363;
+
+    public final String name;
+    /** Sample data, where 1.0 is full scale. */
+    public final float[] data;
+    /** Loop start and length in samples; a length of 0 means the sample plays once. */
+    public final int loop_start;
+    public final int loop_length;
+    /** Default volume, 0 to 64. */
+    public final int volume;
+    /** Tuning in 1/128ths of a semitone. */
+    public final int finetune;
+    /** Transposition in semitones. */
+    public final int relative_note;
+    public final byte pan;
+
+    public module_sample(String name, float[] data, int loop_start, int loop_length, int volume,
+                         int finetune, int relative_note, byte pan){
+        if (loop_start < 0 || loop_length < 0 || loop_start + loop_length > data.length){
+            throw new IllegalArgumentException("Loop " + loop_start + "+" + loop_length
+                    + " does not fit in " + data.length + " samples");
+        }
+        this.name = name;
+        this.data = data;
+        this.loop_start = loop_start;
+        this.loop_length = loop_length;
+        this.volume = volume;
+        this.finetune = finetune;
+        this.relative_note = relative_note;
+        this.pan = pan;
+    }
+
+    public boolean loops(){
+        return loop_length > 0;
+    }
+
+    /** Samples per second to play the data at for a MIDI note. */
+    public double playback_rate(int note){
+        return C4_RATE * Math.pow(2, (note - 60 + relative_note + finetune / 128.0) / 12.0);
+    }
+}
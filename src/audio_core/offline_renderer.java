@@ -0,0 +1,110 @@
+package audio_core;
+
+import audio_core.presets.sine;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Renders a render_source straight to a WAV file as fast as the CPU allows,
+ * without opening an audio device.
+ */
+public class offline_renderer {
+
+    public static class result {
+        public final long frames;
+        public final double audio_seconds;
+        public final double render_seconds;
+
+        result(long frames, int sample_rate, long render_nanos){
+            this.frames = frames;
+            this.audio_seconds = (double) frames / sample_rate;
+            this.render_seconds = render_nanos / 1e9;
+        }
+
+        /** How many times faster than real time the bounce ran. */
+        public double realtime_factor(){
+            return audio_seconds / render_seconds;
+        }
+
+        @Override
+        public String toString(){
+            return String.format("%d frames (%.2f s of audio) in %.3f s, %.1fx real time",
+                    frames, audio_seconds, render_seconds, realtime_factor());
+        }
+    }
+
+    private offline_renderer() {
+    }
+
+    /**
+     * Renders frames of the source to path in mono, one block at a time.
+     */
+    public static result bounce(render_source source, int sample_rate, long frames, Path path,
+                                wav_writer.sample_format format) throws IOException {
+        return bounce(source, sample_rate, frames, path, format, 1);
+    }
+
+    /**
+     * Renders frames of the source to path, one block at a time.
+     * @param channels 1 for mono, or 2 for stereo from the source's render_stereo
+     */
+    public static result bounce(render_source source, int sample_rate, long frames, Path path,
+                                wav_writer.sample_format format, int channels) throws IOException {
+        if (channels != 1 && channels != 2) {
+            throw new IllegalArgumentException("Expected 1 or 2 channels, got " + channels);
+        }
+        float[] block = new float[wave_script.BLOCK_SIZE * channels];
+        long start = System.nanoTime();
+        try (wav_writer writer = new wav_writer(path, sample_rate, channels, format)) {
+            long remaining = frames;
+            while (remaining > 0) {
+                int count = (int) Math.min(remaining, wave_script.BLOCK_SIZE);
+                if (channels == 2) {
+                    source.render_stereo(block, 0, count);
+                } else {
+                    source.render(block, 0, count);
+                }
+                writer.write(block, 0, count);
+                remaining -= count;
+            }
+        }
+        return new result(frames, sample_rate, System.nanoTime() - start);
+    }
+
+    /**
+     * Bounces the demo pattern to a stereo file.
+     * Usage: offline_renderer out.wav [seconds] [16|24|float]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: offline_renderer out.wav [seconds] [16|24|float]");
+            System.exit(2);
+        }
+        Path path = Path.of(args[0]);
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 10;
+        wav_writer.sample_format format = switch (args.length > 2 ? args[2] : "16") {
+            case "16" -> wav_writer.sample_format.PCM_16;
+            case "24" -> wav_writer.sample_format.PCM_24;
+            case "float" -> wav_writer.sample_format.FLOAT_32;
+            default -> throw new IllegalArgumentException("Unknown sample format " + args[2]);
+        };
+
+        final int SAMPLE_RATE = 44100;
+        wave_script[] channel_scripts = new wave_script[sequencer.CHANNELS];
+        for (int c = 0; c < channel_scripts.length; c++) {
+            channel_scripts[c] = new sine();
+        }
+        sequencer seq = new sequencer(channel_scripts);
+        // Channel 1 a little to the left, channel 2 a little to the right
+        seq.song.set_cell(0, 2, 1, pattern_store.pack(69, (byte) 0, (byte) -64, 0, true));
+        seq.song.set_cell(0, 3, 1, pattern_store.pack(69, (byte) 0, (byte) -64, 0, true));
+        seq.song.set_cell(0, 3, 2, pattern_store.pack(69 + 4, (byte) 0, (byte) 64, 0, true));
+
+        try (render_scheduler scheduler = new render_scheduler(seq)) {
+            seq.set_output(scheduler);
+            result r = bounce(seq, SAMPLE_RATE, (long) (seconds * SAMPLE_RATE), path, format, 2);
+            System.out.println("Bounced " + path + ": " + r);
+        }
+    }
+}
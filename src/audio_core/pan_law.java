@@ -0,0 +1,45 @@
+package audio_core;
+
+/**
+ * Constant-power pan gains for every value of a pan byte.
+ *
+ * A pan of -127 (or -128) is hard left, 0 is centre and 127 is hard right.
+ * The left and right gains are the cosine and sine of an angle running from
+ * 0 to pi / 2 across that range, so their squares always sum to 1 and a
+ * voice keeps the same loudness wherever it is placed. The tables are built
+ * once, so panning costs two array reads per voice and block, and no trig.
+ */
+public final class pan_law {
+    /** Gain of each side at the centre, 1 / sqrt(2). */
+    public static final float CENTRE = (float) Math.sqrt(0.5);
+
+    // Indexed by pan + 128
+    private static final float[] LEFT = new float[256];
+    private static final float[] RIGHT = new float[256];
+
+    static {
+        for (int index = 0; index < 256; index++){
+            int pan = Math.max(-127, index - 128);
+            double angle = (pan + 127) / 254.0 * Math.PI / 2;
+            LEFT[index] = (float) Math.cos(angle);
+            RIGHT[index] = (float) Math.sin(angle);
+        }
+        // Exact at the centre and the edges, so a centred voice matches CENTRE
+        LEFT[128] = CENTRE;
+        RIGHT[128] = CENTRE;
+        LEFT[255] = 0f;
+        RIGHT[0] = 0f;
+        RIGHT[1] = 0f;
+    }
+
+    private pan_law() {
+    }
+
+    public static float left(byte pan){
+        return LEFT[pan + 128];
+    }
+
+    public static float right(byte pan){
+        return RIGHT[pan + 128];
+    }
+}
@@ -0,0 +1,329 @@
+package audio_core;
+
+import java.util.Arrays;
+
+/**
+ * Every pattern in a song, plus the order list that arranges them.
+ *
+ * Each pattern is one long[] of rows * channels cells, row-major. A cell
+ * packs everything about one note event into a single long:
+ *
+ *   bits  0-15  note
+ *   bits 16-23  velocity (raw byte, as entered)
+ *   bits 24-31  pan (signed byte, -128 left, 0 centre, 127 right)
+ *   bits 32-47  effect (command in the high byte, parameter in the low byte)
+ *   bit  48     active: the cell starts a note
+ *   bits 56-63  instrument (0 for none)
+ *
+ * An empty cell is 0.
+ *
+ * Patterns read from a project_file start out unloaded and are decoded the
+ * first time their cells are read. The store also tracks which patterns have
+ * changed since the last save, so saves only write those.
+ */
+public class pattern_store {
+    public static final int DEFAULT_ROWS = 16;
+
+    /** Decodes a pattern that was added unloaded. */
+    public interface pattern_loader {
+        long[] load(int pattern);
+    }
+
+    private static final int VELOCITY_SHIFT = 16;
+    private static final int PAN_SHIFT = 24;
+    private static final int EFFECT_SHIFT = 32;
+    private static final long ACTIVE_BIT = 1L << 48;
+    private static final int INSTRUMENT_SHIFT = 56;
+
+    private final int channels;
+    private long[][] patterns = new long[0][];
+    private int[] pattern_rows = new int[0];
+    private boolean[] dirty = new boolean[0];
+    private int pattern_count = 0;
+    private pattern_loader loader;
+
+    private int[] order = new int[0];
+    private int order_length = 0;
+    // Set when the pattern list or the order list changes
+    private boolean song_dirty = false;
+
+    public pattern_store(int channels){
+        if (channels < 1){
+            throw new IllegalArgumentException("A pattern needs at least one channel, got " + channels);
+        }
+        this.channels = channels;
+    }
+
+    /**
+     * A store with one empty pattern of the given size, played once in the order list.
+     */
+    public static pattern_store single_pattern(int rows, int channels){
+        pattern_store store = new pattern_store(channels);
+        store.add_order(store.add_pattern(rows));
+        return store;
+    }
+
+    // --- Cells ---
+
+    public static long pack(int note, byte velocity, byte pan, int effect, boolean active){
+        return (note & 0xFFFFL)
+                | (velocity & 0xFFL) << VELOCITY_SHIFT
+                | (pan & 0xFFL) << PAN_SHIFT
+                | (effect & 0xFFFFL) << EFFECT_SHIFT
+                | (active ? ACTIVE_BIT : 0);
+    }
+
+    public static int note(long cell){
+        return (int) (cell & 0xFFFF);
+    }
+
+    public static byte velocity(long cell){
+        return (byte) (cell >>> VELOCITY_SHIFT);
+    }
+
+    public static byte pan(long cell){
+        return (byte) (cell >>> PAN_SHIFT);
+    }
+
+    public static int effect(long cell){
+        return (int) ((cell >>> EFFECT_SHIFT) & 0xFFFF);
+    }
+
+    public static boolean active(long cell){
+        return (cell & ACTIVE_BIT) != 0;
+    }
+
+    public static int instrument(long cell){
+        return (int) (cell >>> INSTRUMENT_SHIFT);
+    }
+
+    public static long with_note(long cell, int note){
+        return (cell & ~0xFFFFL) | (note & 0xFFFFL);
+    }
+
+    public static long with_velocity(long cell, byte velocity){
+        return (cell & ~(0xFFL << VELOCITY_SHIFT)) | (velocity & 0xFFL) << VELOCITY_SHIFT;
+    }
+
+    public static long with_pan(long cell, byte pan){
+        return (cell & ~(0xFFL << PAN_SHIFT)) | (pan & 0xFFL) << PAN_SHIFT;
+    }
+
+    public static long with_effect(long cell, int effect){
+        return (cell & ~(0xFFFFL << EFFECT_SHIFT)) | (effect & 0xFFFFL) << EFFECT_SHIFT;
+    }
+
+    public static long with_active(long cell, boolean active){
+        return active ? cell | ACTIVE_BIT : cell & ~ACTIVE_BIT;
+    }
+
+    public static long with_instrument(long cell, int instrument){
+        return (cell & ~(0xFFL << INSTRUMENT_SHIFT)) | (instrument & 0xFFL) << INSTRUMENT_SHIFT;
+    }
+
+    /**
+     * An independent copy of the song with every pattern decoded, e.g. for
+     * the audio thread to play while this one is edited. Change tracking is
+     * copied too.
+     */
+    public pattern_store copy(){
+        pattern_store copy = new pattern_store(channels);
+        copy.patterns = new long[pattern_count][];
+        for (int p = 0; p < pattern_count; p++){
+            copy.patterns[p] = cells(p).clone();
+        }
+        copy.pattern_rows = Arrays.copyOf(pattern_rows, pattern_count);
+        copy.dirty = Arrays.copyOf(dirty, pattern_count);
+        copy.pattern_count = pattern_count;
+        copy.order = Arrays.copyOf(order, order_length);
+        copy.order_length = order_length;
+        copy.song_dirty = song_dirty;
+        return copy;
+    }
+
+    // --- Patterns ---
+
+    public int channels(){
+        return channels;
+    }
+
+    public int pattern_count(){
+        return pattern_count;
+    }
+
+    /**
+     * Adds an empty pattern.
+     * @return the new pattern's number
+     */
+    public int add_pattern(int rows){
+        int pattern = add_unloaded_pattern(rows);
+        patterns[pattern] = new long[rows * channels];
+        dirty[pattern] = true;
+        return pattern;
+    }
+
+    /**
+     * Adds a pattern whose cells the loader decodes on first use. The pattern
+     * counts as saved until it changes.
+     */
+    int add_unloaded_pattern(int rows){
+        if (rows < 1){
+            throw new IllegalArgumentException("A pattern needs at least one row, got " + rows);
+        }
+        if (pattern_count == patterns.length){
+            int capacity = Math.max(8, pattern_count * 2);
+            patterns = Arrays.copyOf(patterns, capacity);
+            pattern_rows = Arrays.copyOf(pattern_rows, capacity);
+            dirty = Arrays.copyOf(dirty, capacity);
+        }
+        pattern_rows[pattern_count] = rows;
+        song_dirty = true;
+        return pattern_count++;
+    }
+
+    void set_loader(pattern_loader loader){
+        this.loader = loader;
+    }
+
+    /** Whether the pattern's cells have been decoded yet. */
+    public boolean is_loaded(int pattern){
+        check_pattern(pattern);
+        return patterns[pattern] != null;
+    }
+
+    public int rows(int pattern){
+        check_pattern(pattern);
+        return pattern_rows[pattern];
+    }
+
+    public long cell(int pattern, int row, int channel){
+        return cells(pattern)[row * channels + channel];
+    }
+
+    public void set_cell(int pattern, int row, int channel, long cell){
+        cells(pattern)[row * channels + channel] = cell;
+        dirty[pattern] = true;
+    }
+
+    /**
+     * The pattern's cells, row-major, decoding them first if needed. Writes go
+     * straight into the pattern; call mark_dirty after writing so the next
+     * save includes them.
+     */
+    public long[] cells(int pattern){
+        check_pattern(pattern);
+        long[] cells = patterns[pattern];
+        return cells != null ? cells : load(pattern);
+    }
+
+    private synchronized long[] load(int pattern){
+        if (patterns[pattern] == null){
+            long[] cells = loader.load(pattern);
+            if (cells.length != pattern_rows[pattern] * channels){
+                throw new IllegalStateException("Pattern " + pattern + " decoded to " + cells.length
+                        + " cells, expected " + pattern_rows[pattern] * channels);
+            }
+            patterns[pattern] = cells;
+        }
+        return patterns[pattern];
+    }
+
+    // --- Change tracking ---
+
+    public void mark_dirty(int pattern){
+        check_pattern(pattern);
+        dirty[pattern] = true;
+    }
+
+    /** Whether the pattern changed since it was loaded or last saved. */
+    public boolean is_dirty(int pattern){
+        check_pattern(pattern);
+        return dirty[pattern];
+    }
+
+    /** Whether patterns were added or the order list changed since the last save. */
+    public boolean is_song_dirty(){
+        return song_dirty;
+    }
+
+    /** Marks everything as saved. */
+    public void mark_clean(){
+        Arrays.fill(dirty, false);
+        song_dirty = false;
+    }
+
+    public int get_note(int pattern, int row, int channel){
+        return note(cell(pattern, row, channel));
+    }
+
+    public void set_note(int pattern, int row, int channel, int note){
+        set_cell(pattern, row, channel, with_note(cell(pattern, row, channel), note));
+    }
+
+    public byte get_velocity(int pattern, int row, int channel){
+        return velocity(cell(pattern, row, channel));
+    }
+
+    public void set_velocity(int pattern, int row, int channel, byte velocity){
+        set_cell(pattern, row, channel, with_velocity(cell(pattern, row, channel), velocity));
+    }
+
+    public byte get_pan(int pattern, int row, int channel){
+        return pan(cell(pattern, row, channel));
+    }
+
+    public void set_pan(int pattern, int row, int channel, byte pan){
+        set_cell(pattern, row, channel, with_pan(cell(pattern, row, channel), pan));
+    }
+
+    public boolean is_active(int pattern, int row, int channel){
+        return active(cell(pattern, row, channel));
+    }
+
+    public void set_active(int pattern, int row, int channel, boolean active){
+        set_cell(pattern, row, channel, with_active(cell(pattern, row, channel), active));
+    }
+
+    // --- Order list ---
+
+    public int order_length(){
+        return order_length;
+    }
+
+    /** The pattern played at a position in the order list. */
+    public int order_at(int position){
+        if (position < 0 || position >= order_length){
+            throw new IndexOutOfBoundsException("Order position " + position + " of " + order_length);
+        }
+        return order[position];
+    }
+
+    public void add_order(int pattern){
+        check_pattern(pattern);
+        if (order_length == order.length){
+            order = Arrays.copyOf(order, Math.max(16, order_length * 2));
+        }
+        order[order_length++] = pattern;
+        song_dirty = true;
+    }
+
+    public void set_order(int position, int pattern){
+        check_pattern(pattern);
+        if (position < 0 || position >= order_length){
+            throw new IndexOutOfBoundsException("Order position " + position + " of " + order_length);
+        }
+        order[position] = pattern;
+        song_dirty = true;
+    }
+
+    public void clear_order(){
+        order_length = 0;
+        song_dirty = true;
+    }
+
+    private void check_pattern(int pattern){
+        if (pattern < 0 || pattern >= pattern_count){
+            throw new IndexOutOfBoundsException("Pattern " + pattern + " of " + pattern_count);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package audio_core;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Converts blocks of float samples to signed little-endian PCM.
+ *
+ * Each conversion is one pass over the block: clamp to full scale, scale,
+ * round, and store the whole sample with a single little-endian write rather
+ * than byte by byte. Rounding offsets the scaled value to be positive and
+ * truncates, which is cheaper than Math.round, and the loops have no
+ * per-sample branches, so the JIT can unroll and vectorise them.
+ */
+public final class pcm_encoder {
+    private static final VarHandle SHORT_LE =
+            MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT_LE =
+            MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    // 24-bit samples are converted a chunk at a time into a per-thread scratch array
+    private static final int CHUNK = 256;
+    private static final ThreadLocal<int[]> SCRATCH = ThreadLocal.withInitial(() -> new int[CHUNK]);
+
+    private pcm_encoder() {
+    }
+
+    /** Sample sizes encode accepts, in bits. */
+    public static boolean supports(int bits){
+        return bits == 8 || bits == 16 || bits == 24;
+    }
+
+    /**
+     * Converts samples to PCM of the given size.
+     * @param bits 8, 16 or 24
+     */
+    public static void encode(float[] in, int in_offset, byte[] out, int out_offset, int samples, int bits){
+        switch (bits){
+            case 8 -> wave_script.quantise(in, in_offset, out, out_offset, samples);
+            case 16 -> encode_16(in, in_offset, out, out_offset, samples);
+            case 24 -> encode_24(in, in_offset, out, out_offset, samples);
+            default -> throw new IllegalArgumentException("Cannot encode " + bits + "-bit PCM");
+        }
+    }
+
+    /**
+     * Converts samples to signed 16-bit little-endian PCM, two bytes each.
+     */
+    public static void encode_16(float[] in, int in_offset, byte[] out, int out_offset, int samples){
+        for (int i = 0; i < samples; i++){
+            int value = (int) (Math.clamp(in[in_offset + i], -1f, 1f) * 32767f + 32768.5f) - 32768;
+            SHORT_LE.set(out, out_offset + i * 2, (short) value);
+        }
+    }
+
+    /**
+     * Converts samples to signed 24-bit little-endian PCM, three bytes each.
+     */
+    public static void encode_24(float[] in, int in_offset, byte[] out, int out_offset, int samples){
+        int[] scratch = SCRATCH.get();
+        while (samples > 0){
+            int count = Math.min(samples, CHUNK);
+            // Converting first and storing second keeps the conversion loop vectorisable
+            for (int i = 0; i < count; i++){
+                scratch[i] = to_24(in[in_offset + i]);
+            }
+            // Each sample is stored as four bytes; the next sample overwrites the spare high byte
+            int last = count - 1;
+            for (int i = 0; i < last; i++){
+                INT_LE.set(out, out_offset + i * 3, scratch[i]);
+            }
+            int value = scratch[last];
+            int at = out_offset + last * 3;
+            out[at] = (byte) value;
+            out[at + 1] = (byte) (value >> 8);
+            out[at + 2] = (byte) (value >> 16);
+            in_offset += count;
+            out_offset += count * 3;
+            samples -= count;
+        }
+    }
+
+    // In double, as a float cannot hold the offset value to half a step
+    private static int to_24(float sample){
+        return (int) (Math.clamp(sample, -1f, 1f) * 8388607.0 + 8388608.5) - 8388608;
+    }
+}
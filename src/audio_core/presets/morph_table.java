@@ -0,0 +1,131 @@
+package audio_core.presets;
+import audio_core.wave_script;
+import audio_core.wavetable_bank;
+import audio_core.wavetable_cache;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * A wavetable instrument: plays a wavetable_bank, morphing between its frames.
+ *
+ * Each voice has its own morph position, from 0 (first frame) to frames - 1
+ * (last frame). Fractional positions crossfade the two nearest frames. A
+ * voice starts at the instrument's morph setting and can then be moved on its
+ * own with set_position; it glides to a new position over the next block
+ * rather than jumping.
+ */
+public class morph_table extends wave_script {
+    public final wavetable_bank bank;
+    private final float[] data;
+    // Per-voice state, indexed by voice number
+    private final int[] level;
+    private final float[] position;
+    private final float[] target;
+    private volatile float morph = 0f;
+
+    public morph_table(wavetable_bank bank) {
+        this(bank, DEFAULT_POLYPHONY);
+    }
+    public morph_table(wavetable_bank bank, int polyphony) {
+        super(polyphony);
+        this.bank = bank;
+        this.data = bank.data();
+        this.level = new int[polyphony];
+        this.position = new float[polyphony];
+        this.target = new float[polyphony];
+    }
+
+    /**
+     * A morph_table playing a WAV wavetable, loaded through the shared
+     * wavetable_cache so every instrument using the file shares one bank.
+     */
+    public static morph_table load(Path path) throws IOException {
+        return new morph_table(wavetable_cache.shared().get(path, 0));
+    }
+
+    /** Sets the morph position new notes start at. */
+    public void set_morph(float frame) {
+        morph = clamp_position(frame);
+    }
+
+    public float morph() {
+        return morph;
+    }
+
+    /** Moves one voice to a new morph position, gliding there over the next block. */
+    public void set_position(int voice, float frame) {
+        target[voice] = clamp_position(frame);
+    }
+
+    /**
+     * Moves every voice slot to a new morph position. Idle slots take it too;
+     * note_start resets them to the morph setting, so only playing voices glide.
+     */
+    public void set_all_positions(float frame) {
+        float clamped = clamp_position(frame);
+        java.util.Arrays.fill(target, clamped);
+    }
+
+    private float clamp_position(float frame) {
+        return Math.clamp(frame, 0f, bank.frames - 1);
+    }
+
+    @Override
+    public int note_start(int note, byte velocity, byte pan) {
+        int v = super.note_start(note, velocity, pan);
+        level[v] = bank.level_for(phase_increment(note));
+        position[v] = morph;
+        target[v] = morph;
+        return v;
+    }
+
+    @Override
+    protected float[] table_for(double phase_increment) {
+        return data;
+    }
+
+    @Override
+    protected boolean plays_cycles() {
+        return false;
+    }
+
+    @Override
+    protected void render_voice(int v, float[] out, int offset, int frames) {
+        float amplitude = voices.amplitude[v];
+        double phase = voices.phase[v];
+        double increment = voices.increment[v];
+        int k = level[v];
+        int size = bank.level_size(k);
+        int stride = size + 1;
+        int base = bank.level_offset(k);
+        int last_frame = bank.frames - 1;
+        float pos = position[v];
+        // Read once, so a set_position during the block cannot make the voice jump at its end
+        float goal = target[v];
+        float step = (goal - pos) / frames;
+        int end = offset + frames;
+        for (int i = offset; i < end; i++) {
+            int frame = Math.min((int) pos, Math.max(0, last_frame - 1));
+            float mix = pos - frame;
+            double at = phase * size;
+            int j = (int) at;
+            float frac = (float) (at - j);
+            int a = base + frame * stride + j;
+            float s0 = data[a] + (data[a + 1] - data[a]) * frac;
+            float s1 = s0;
+            if (last_frame > 0) {
+                int b = a + stride;
+                s1 = data[b] + (data[b + 1] - data[b]) * frac;
+            }
+            out[i] += amplitude * (s0 + (s1 - s0) * mix);
+            pos += step;
+            phase += increment;
+            if (phase >= 1.0) {
+                phase -= (int) phase;
+            }
+        }
+        voices.phase[v] = phase;
+        position[v] = goal;
+    }
+}
@@ -0,0 +1,74 @@
+package audio_core.presets;
+import audio_core.module_sample;
+import audio_core.sine_table;
+import audio_core.tuning;
+import audio_core.wave_script;
+
+/**
+ * Plays a module_sample, looping its loop region, or once if it has none.
+ *
+ * The voice phase runs from 0 to 1 over the sample up to the loop end rather
+ * than over one cycle, so the increment depends on the sample's length and
+ * rate. Data after the loop end is never heard and is left out.
+ */
+public class sampler extends wave_script {
+    private static final double MIDDLE_C = tuning.EQUAL_TEMPERAMENT.frequency(60);
+    public final module_sample sample;
+    // The sample plus a guard: the loop start when looping, silence otherwise
+    private final float[] table;
+    private final double loop_start;
+
+    public sampler(module_sample sample) {
+        this(sample, DEFAULT_POLYPHONY);
+    }
+    public sampler(module_sample sample, int polyphony) {
+        super(polyphony);
+        this.sample = sample;
+        int length = sample.loops() ? sample.loop_start + sample.loop_length : Math.max(1, sample.data.length);
+        this.table = new float[length + 1];
+        System.arraycopy(sample.data, 0, table, 0, Math.min(length, sample.data.length));
+        table[length] = sample.loops() ? sample.data[sample.loop_start] : 0f;
+        this.loop_start = (double) sample.loop_start / length;
+    }
+
+    @Override
+    public double phase_increment(int note) {
+        // Pitch relative to an equal-tempered middle C, which plays at the sample's own C-4 rate
+        double ratio = super.phase_increment(note) * sample_rate() / MIDDLE_C;
+        return ratio * sample.playback_rate(60) / sample_rate() / (table.length - 1);
+    }
+
+    @Override
+    protected float[] table_for(double phase_increment) {
+        return table;
+    }
+
+    @Override
+    protected boolean plays_cycles() {
+        return false;
+    }
+
+    @Override
+    protected void render_voice(int v, float[] out, int offset, int frames) {
+        float amplitude = voices.amplitude[v];
+        if (amplitude == 0f) {
+            return;
+        }
+        double phase = voices.phase[v];
+        double increment = voices.increment[v];
+        int end = offset + frames;
+        for (int i = offset; i < end; i++) {
+            out[i] += amplitude * sine_table.lookup(table, phase);
+            phase += increment;
+            if (phase >= 1.0) {
+                if (!sample.loops()) {
+                    // Finished: stay silent until the note is stopped
+                    voices.amplitude[v] = 0f;
+                    break;
+                }
+                phase = loop_start + (phase - 1.0) % (1.0 - loop_start);
+            }
+        }
+        voices.phase[v] = phase;
+    }
+}
@@ -0,0 +1,17 @@
+package audio_core.presets;
+import audio_core.wavetable;
+
+/** A band-limited sawtooth. */
+public class saw extends single_cycle {
+    // Built on first use and shared by every saw
+    private static final class shared {
+        static final wavetable TABLE = wavetable.of(phase -> 1 - 2 * phase);
+    }
+
+    public saw() {
+        super(shared.TABLE);
+    }
+    public saw(int polyphony) {
+        super(shared.TABLE, polyphony);
+    }
+}
@@ -1,5 +1,17 @@
 package audio_core.presets;
+import audio_core.sine_table;
 import audio_core.wave_script;
 public class sine  extends  wave_script{
 
+    public sine() {
+        super();
+    }
+    public sine(int polyphony) {
+        super(polyphony);
+    }
+
+    @Override
+    protected float[] table_for(double phase_increment) {
+        return sine_table.TABLE;
+    }
 }
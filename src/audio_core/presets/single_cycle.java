@@ -0,0 +1,29 @@
+package audio_core.presets;
+import audio_core.wavetable;
+import audio_core.wave_script;
+
+/**
+ * Plays any single-cycle waveform through a band-limited wavetable, so high
+ * notes do not alias.
+ */
+public class single_cycle extends wave_script {
+    public final wavetable table;
+
+    public single_cycle(wavetable table) {
+        super();
+        this.table = table;
+    }
+    public single_cycle(wavetable table, int polyphony) {
+        super(polyphony);
+        this.table = table;
+    }
+    /** Builds the wavetable from one cycle of a power-of-two length. */
+    public single_cycle(float[] cycle) {
+        this(new wavetable(cycle));
+    }
+
+    @Override
+    protected float[] table_for(double phase_increment) {
+        return table.table_for(phase_increment);
+    }
+}
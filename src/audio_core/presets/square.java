@@ -0,0 +1,17 @@
+package audio_core.presets;
+import audio_core.wavetable;
+
+/** A band-limited square wave. */
+public class square extends single_cycle {
+    // Built on first use and shared by every square
+    private static final class shared {
+        static final wavetable TABLE = wavetable.of(phase -> phase < 0.5 ? 1 : -1);
+    }
+
+    public square() {
+        super(shared.TABLE);
+    }
+    public square(int polyphony) {
+        super(shared.TABLE, polyphony);
+    }
+}
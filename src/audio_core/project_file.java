@@ -0,0 +1,333 @@
+package audio_core;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A project saved to disk: the song's patterns and order list, plus any other
+ * chunks such as instruments and wavetables.
+ *
+ * The file is a header, a run of chunks and a chunk table, all little-endian:
+ *
+ *   header  "UWUP", int version, long table offset
+ *   chunk   raw bytes; the table says where each one starts and how long it is
+ *   table   int count, then per chunk: int type, int id, long offset, int length
+ *
+ * Chunk types are four ASCII characters. The song chunk ("SONG") holds the
+ * channel count, each pattern's row count and the order list. Each pattern is
+ * its own "PATN" chunk of packed cells, numbered by pattern.
+ *
+ * Opening a file maps it and reads only the header, table and song chunk, so
+ * it takes the same time however big the project is. Patterns are decoded
+ * straight out of the mapping the first time they are played or drawn.
+ *
+ * Saving back to the same file is incremental: changed chunks are appended,
+ * then a new table, then the header is pointed at the new table. Chunks that
+ * did not change are left where they are. Old copies of changed chunks stay
+ * in the file as dead space until the project is written out in full with
+ * save_as.
+ */
+public class project_file implements AutoCloseable {
+    public static final int VERSION = 1;
+    public static final int SONG = fourcc("SONG");
+    public static final int PATTERN = fourcc("PATN");
+
+    private static final int MAGIC = fourcc("UWUP");
+    private static final int HEADER_SIZE = 16;
+    private static final int TABLE_OFFSET_POSITION = 8;
+    private static final int TABLE_ENTRY_SIZE = 20;
+
+    private record chunk(int type, int id, long offset, int length) {
+    }
+
+    private final Path path;
+    private final FileChannel channel;
+    private MappedByteBuffer map;
+    private final Map<Long, chunk> chunks = new HashMap<>();
+    // Chunks set with put_chunk that have not been saved yet
+    private final Map<Long, chunk_data> pending = new HashMap<>();
+    private pattern_store song;
+
+    private record chunk_data(int type, int id, ByteBuffer data) {
+    }
+
+    private project_file(Path path, FileChannel channel){
+        this.path = path;
+        this.channel = channel;
+    }
+
+    /**
+     * Opens a project. Its patterns are decoded from the mapped file on first use.
+     */
+    public static project_file open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        project_file file = new project_file(path, channel);
+        try {
+            file.read();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return file;
+    }
+
+    /**
+     * Writes song to a new file, replacing any file already there, and keeps
+     * it open for incremental saves.
+     */
+    public static project_file create(Path path, pattern_store song) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        project_file file = new project_file(path, channel);
+        file.song = song;
+        try {
+            file.write_all();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return file;
+    }
+
+    public Path path(){
+        return path;
+    }
+
+    public pattern_store song(){
+        return song;
+    }
+
+    /** The chunk's bytes, or null if the project has no such chunk. */
+    public ByteBuffer chunk(int type, int id){
+        chunk_data unsaved = pending.get(key(type, id));
+        if (unsaved != null){
+            return unsaved.data.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        }
+        chunk c = chunks.get(key(type, id));
+        return c == null ? null : map.slice((int) c.offset, c.length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** Sets a chunk's contents, to be written on the next save. */
+    public void put_chunk(int type, int id, ByteBuffer data){
+        if (type == SONG || type == PATTERN){
+            throw new IllegalArgumentException("Song and pattern chunks are written from the pattern_store");
+        }
+        pending.put(key(type, id), new chunk_data(type, id, data.duplicate()));
+    }
+
+    /**
+     * Writes whatever changed since the last save.
+     */
+    public void save() throws IOException {
+        long end = channel.size();
+        for (int p = 0; p < song.pattern_count(); p++){
+            if (song.is_dirty(p) || !chunks.containsKey(key(PATTERN, p))){
+                end = append(PATTERN, p, encode_pattern(p), end);
+            }
+        }
+        if (song.is_song_dirty() || !chunks.containsKey(key(SONG, 0))){
+            end = append(SONG, 0, encode_song(), end);
+        }
+        for (chunk_data c : pending.values()){
+            end = append(c.type, c.id, c.data.duplicate(), end);
+        }
+        commit_table(end);
+    }
+
+    /**
+     * Writes the whole project to a new file with no dead space and switches
+     * to it. The old file is left as it was.
+     */
+    public project_file save_as(Path target) throws IOException {
+        FileChannel target_channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        project_file file = new project_file(target, target_channel);
+        file.song = song;
+        try {
+            for (chunk c : chunks.values()){
+                if (c.type != SONG && c.type != PATTERN){
+                    file.pending.put(key(c.type, c.id), new chunk_data(c.type, c.id, chunk(c.type, c.id)));
+                }
+            }
+            file.pending.putAll(pending);
+            file.write_all();
+        } catch (IOException | RuntimeException e) {
+            target_channel.close();
+            throw e;
+        }
+        song.set_loader(file::decode_pattern);
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // With no chunks in the table, save writes every chunk
+    private void write_all() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putLong(0).flip();
+        write_fully(header, 0);
+        chunks.clear();
+        save();
+    }
+
+    private void read() throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE || size > Integer.MAX_VALUE){
+            throw new IOException(path + " is not a project file");
+        }
+        map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        if (map.getInt(0) != MAGIC){
+            throw new IOException(path + " is not a project file");
+        }
+        int version = map.getInt(4);
+        if (version > VERSION){
+            throw new IOException(path + " is project version " + version + ", newer than this version (" + VERSION + ")");
+        }
+        long table = map.getLong(TABLE_OFFSET_POSITION);
+        if (table < HEADER_SIZE || table + 4 > size){
+            throw new IOException(path + " is damaged: the chunk table lies outside the file");
+        }
+        int count = map.getInt((int) table);
+        if (count < 0 || table + 4 + (long) count * TABLE_ENTRY_SIZE > size){
+            throw new IOException(path + " is damaged: the chunk table lists " + count + " chunks");
+        }
+        int position = (int) table + 4;
+        for (int i = 0; i < count; i++, position += TABLE_ENTRY_SIZE){
+            chunk c = new chunk(map.getInt(position), map.getInt(position + 4),
+                    map.getLong(position + 8), map.getInt(position + 16));
+            if (c.offset < HEADER_SIZE || c.length < 0 || c.offset > size - c.length){
+                throw new IOException(path + " is damaged: chunk " + i + " lies outside the file");
+            }
+            chunks.put(key(c.type, c.id), c);
+        }
+        ByteBuffer song_chunk = chunk(SONG, 0);
+        if (song_chunk == null){
+            throw new IOException(path + " has no song chunk");
+        }
+        try {
+            song = decode_song(song_chunk);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException(path + " is damaged: the song chunk is cut short or invalid", e);
+        }
+        // Patterns decode lazily, on whatever thread first reads them, so their chunks are checked now
+        for (int p = 0; p < song.pattern_count(); p++){
+            chunk c = chunks.get(key(PATTERN, p));
+            long expected = (long) song.rows(p) * song.channels() * Long.BYTES;
+            if (c == null || c.length != expected){
+                throw new IOException(path + " is damaged: pattern " + p + " should take " + expected + " bytes"
+                        + (c == null ? " but has no chunk" : ", its chunk has " + c.length));
+            }
+        }
+    }
+
+    private pattern_store decode_song(ByteBuffer in) throws IOException {
+        pattern_store store = new pattern_store(in.getInt());
+        int patterns = in.getInt();
+        for (int p = 0; p < patterns; p++){
+            store.add_unloaded_pattern(in.getInt());
+        }
+        int order_length = in.getInt();
+        for (int i = 0; i < order_length; i++){
+            int pattern = in.getInt();
+            if (pattern < 0 || pattern >= patterns){
+                throw new IOException(path + " is damaged: order entry " + i + " names pattern " + pattern
+                        + " of " + patterns);
+            }
+            store.add_order(pattern);
+        }
+        store.set_loader(this::decode_pattern);
+        store.mark_clean();
+        return store;
+    }
+
+    private long[] decode_pattern(int pattern){
+        ByteBuffer in = chunk(PATTERN, pattern);
+        if (in == null){
+            throw new IllegalStateException(path + " has no chunk for pattern " + pattern);
+        }
+        long[] cells = new long[in.remaining() / Long.BYTES];
+        in.asLongBuffer().get(cells);
+        return cells;
+    }
+
+    private ByteBuffer encode_song(){
+        int patterns = song.pattern_count();
+        ByteBuffer out = ByteBuffer.allocate(4 * (3 + patterns + song.order_length())).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(song.channels()).putInt(patterns);
+        for (int p = 0; p < patterns; p++){
+            out.putInt(song.rows(p));
+        }
+        out.putInt(song.order_length());
+        for (int i = 0; i < song.order_length(); i++){
+            out.putInt(song.order_at(i));
+        }
+        return out.flip();
+    }
+
+    private ByteBuffer encode_pattern(int pattern){
+        long[] cells = song.cells(pattern);
+        ByteBuffer out = ByteBuffer.allocate(cells.length * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        out.asLongBuffer().put(cells);
+        return out;
+    }
+
+    private long append(int type, int id, ByteBuffer data, long position) throws IOException {
+        int length = data.remaining();
+        write_fully(data, position);
+        chunks.put(key(type, id), new chunk(type, id, position, length));
+        return position + length;
+    }
+
+    // Writes the table after the chunks, then points the header at it. The
+    // header is only updated once everything it points to is on disk.
+    private void commit_table(long position) throws IOException {
+        ByteBuffer table = ByteBuffer.allocate(4 + chunks.size() * TABLE_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        table.putInt(chunks.size());
+        for (chunk c : chunks.values()){
+            table.putInt(c.type).putInt(c.id).putLong(c.offset).putInt(c.length);
+        }
+        write_fully(table.flip(), position);
+        channel.force(false);
+
+        ByteBuffer offset = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(0, position);
+        write_fully(offset, TABLE_OFFSET_POSITION);
+        channel.force(false);
+
+        song.mark_clean();
+        pending.clear();
+        map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        map.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void write_fully(ByteBuffer source, long position) throws IOException {
+        while (source.hasRemaining()) {
+            position += channel.write(source, position);
+        }
+    }
+
+    private static long key(int type, int id){
+        return (long) type << 32 | (id & 0xFFFFFFFFL);
+    }
+
+    /** A chunk type from four ASCII characters. */
+    public static int fourcc(String name){
+        byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+        if (bytes.length != 4){
+            throw new IllegalArgumentException("Chunk types are four characters, got \"" + name + "\"");
+        }
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getInt();
+    }
+}
@@ -0,0 +1,146 @@
+package audio_core;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Render-loop measurements for an audio_engine.
+ *
+ * The render thread records each block's render time and voice count, and the
+ * output thread records how full the sink is. Recording a block costs two
+ * clock reads and a few array writes, so metrics are always on. Any thread
+ * can read them: values are published individually and may be a block apart
+ * from each other.
+ */
+public class render_metrics {
+    /** Histogram bucket b counts blocks that took [2^b, 2^(b+1)) microseconds; bucket 0 also counts 0. */
+    public static final int BUCKETS = 24;
+    // Weight of the newest block in the smoothed DSP load
+    private static final double LOAD_SMOOTHING = 0.05;
+
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+    private volatile long blocks = 0;
+    private volatile long last_render_nanos = 0;
+    private volatile long max_render_nanos = 0;
+    private volatile double dsp_load = 0;
+    private volatile double peak_dsp_load = 0;
+    private volatile int active_voices = 0;
+    private volatile int sink_buffered_bytes = 0;
+    private volatile int sink_buffer_size = 0;
+    private volatile long underruns = 0;
+
+    /**
+     * Records a rendered block. Render thread only.
+     * @param budget_nanos real-time duration of the block
+     */
+    public void record_block(long render_nanos, long budget_nanos, int voices){
+        long micros = render_nanos / 1000;
+        int bucket = micros <= 0 ? 0 : Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+        histogram.setRelease(bucket, histogram.getPlain(bucket) + 1);
+
+        double load = (double) render_nanos / budget_nanos;
+        dsp_load = blocks == 0 ? load : dsp_load + (load - dsp_load) * LOAD_SMOOTHING;
+        if (load > peak_dsp_load) {
+            peak_dsp_load = load;
+        }
+        if (render_nanos > max_render_nanos) {
+            max_render_nanos = render_nanos;
+        }
+        last_render_nanos = render_nanos;
+        active_voices = voices;
+        blocks = blocks + 1;
+    }
+
+    /**
+     * Records how much audio the sink holds and its underrun count. Output thread only.
+     */
+    public void record_sink(int buffered_bytes, int buffer_size, long sink_underruns){
+        sink_buffered_bytes = buffered_bytes;
+        sink_buffer_size = buffer_size;
+        underruns = sink_underruns;
+    }
+
+    public long blocks(){
+        return blocks;
+    }
+
+    public long histogram_count(int bucket){
+        return histogram.getAcquire(bucket);
+    }
+
+    public long last_render_nanos(){
+        return last_render_nanos;
+    }
+
+    public long max_render_nanos(){
+        return max_render_nanos;
+    }
+
+    /** Smoothed render time as a fraction of the real-time budget; 1.0 means no headroom. */
+    public double dsp_load(){
+        return dsp_load;
+    }
+
+    public double peak_dsp_load(){
+        return peak_dsp_load;
+    }
+
+    public int active_voices(){
+        return active_voices;
+    }
+
+    public int sink_buffered_bytes(){
+        return sink_buffered_bytes;
+    }
+
+    /** Times the sink ran out of audio while playing. */
+    public long underruns(){
+        return underruns;
+    }
+
+    /** How full the sink's buffer is, from 0 to 1, or 0 if it has no buffer. */
+    public double sink_fill(){
+        int size = sink_buffer_size;
+        return size == 0 ? 0 : (double) sink_buffered_bytes / size;
+    }
+
+    /**
+     * One-line summary for status displays.
+     */
+    public String summary(){
+        return String.format("DSP %.1f%% (peak %.1f%%), %d voices, buffer %.0f%% full, %d underruns",
+                dsp_load * 100, peak_dsp_load * 100, active_voices, sink_fill() * 100, underruns);
+    }
+
+    /**
+     * Writes every metric and the block time histogram to a text file.
+     */
+    public void dump(Path path) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(path))) {
+            write(out);
+        }
+    }
+
+    /**
+     * Writes every metric and the block time histogram, one per line, in the
+     * format dump uses.
+     */
+    public void write(PrintWriter out) {
+        out.printf("blocks %d%n", blocks);
+        out.printf("dsp_load %.4f%n", dsp_load);
+        out.printf("peak_dsp_load %.4f%n", peak_dsp_load);
+        out.printf("last_render_us %.1f%n", last_render_nanos / 1000.0);
+        out.printf("max_render_us %.1f%n", max_render_nanos / 1000.0);
+        out.printf("active_voices %d%n", active_voices);
+        out.printf("sink_buffered_bytes %d%n", sink_buffered_bytes);
+        out.printf("sink_fill %.4f%n", sink_fill());
+        out.printf("underruns %d%n", underruns);
+        out.println("render_time_histogram_us");
+        for (int b = 0; b < BUCKETS; b++) {
+            out.printf("  [%d, %d) %d%n", b == 0 ? 0 : 1L << b, 1L << (b + 1), histogram_count(b));
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package audio_core;
+
+import java.util.IdentityHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Renders several wave_scripts (normally one per sequencer channel) in
+ * parallel on a fork-join pool and mixes them.
+ *
+ * Each part renders into its own preallocated buffer, mono or interleaved
+ * stereo, and the buffers are then summed in part order on the calling thread. A part's output only depends on
+ * its own voices, and the summing order is fixed, so the mix is bit-for-bit
+ * the same whatever the thread count, including rendering on one thread.
+ */
+public class render_scheduler implements render_source, AutoCloseable {
+    private static final int SPIN_LIMIT = 2000;
+    private static final long WAIT_NANOS = 20_000;
+
+    private final wave_script[] parts;
+    private final float[][] part_buffers;
+    private final ForkJoinPool pool;
+    private final part_task[] tasks;
+    private final RecursiveAction root;
+    private int block_frames;
+    private boolean block_stereo;
+
+    /**
+     * @param scripts scripts to mix; a script listed more than once is rendered once
+     * @param threads worker count, 1 renders everything on the calling thread
+     */
+    public render_scheduler(wave_script[] scripts, int threads){
+        if (scripts.length == 0){
+            throw new IllegalArgumentException("Nothing to render: no scripts given");
+        }
+        IdentityHashMap<wave_script, Boolean> seen = new IdentityHashMap<>();
+        for (wave_script script: scripts){
+            seen.putIfAbsent(script, Boolean.TRUE);
+        }
+        // Keep first-appearance order so the summing order is stable
+        wave_script[] distinct = new wave_script[seen.size()];
+        int count = 0;
+        for (wave_script script: scripts){
+            if (seen.remove(script) != null){
+                distinct[count++] = script;
+            }
+        }
+        this.parts = distinct;
+        this.part_buffers = new float[parts.length][2 * wave_script.BLOCK_SIZE];
+
+        threads = Math.min(threads, parts.length);
+        if (threads > 1){
+            this.pool = new ForkJoinPool(threads);
+            this.tasks = new part_task[parts.length];
+            for (int p = 0; p < parts.length; p++){
+                tasks[p] = new part_task(p);
+            }
+            this.root = new RecursiveAction(){
+                @Override
+                protected void compute(){
+                    ForkJoinTask.invokeAll(tasks);
+                }
+            };
+        } else {
+            this.pool = null;
+            this.tasks = null;
+            this.root = null;
+        }
+    }
+
+    public render_scheduler(sequencer seq){
+        this(seq.channel_scripts, default_threads());
+    }
+
+    /**
+     * Worker count from the uwu.render_threads system property, or one per core.
+     */
+    public static int default_threads(){
+        return Integer.getInteger("uwu.render_threads", Runtime.getRuntime().availableProcessors());
+    }
+
+    public int part_count(){
+        return parts.length;
+    }
+
+    /**
+     * Renders and mixes every part into out[offset] to out[offset + frames - 1].
+     */
+    @Override
+    public void render(float[] out, int offset, int frames){
+        while (frames > 0){
+            int block = Math.min(frames, wave_script.BLOCK_SIZE);
+            render_parts(block, false);
+            mix(out, offset, block);
+            offset += block;
+            frames -= block;
+        }
+    }
+
+    /**
+     * Renders and mixes every part as interleaved stereo into out[offset] to
+     * out[offset + 2 * frames - 1].
+     */
+    @Override
+    public void render_stereo(float[] out, int offset, int frames){
+        while (frames > 0){
+            int block = Math.min(frames, wave_script.BLOCK_SIZE);
+            render_parts(block, true);
+            mix(out, offset, 2 * block);
+            offset += 2 * block;
+            frames -= block;
+        }
+    }
+
+    @Override
+    public int active_voices(){
+        int count = 0;
+        for (wave_script part: parts){
+            count += part.active_voices();
+        }
+        return count;
+    }
+
+    private void render_parts(int frames, boolean stereo){
+        if (pool == null){
+            for (int p = 0; p < parts.length; p++){
+                render_part(p, frames, stereo);
+            }
+            return;
+        }
+        block_frames = frames;
+        block_stereo = stereo;
+        for (part_task task: tasks){
+            task.reinitialize();
+        }
+        root.reinitialize();
+        // pool.invoke() would allocate a wait node each time the calling thread
+        // blocks, so submit the block and wait for it here instead
+        pool.execute(root);
+        int spins = 0;
+        while (!root.isDone()){
+            if (spins++ < SPIN_LIMIT){
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(WAIT_NANOS);
+            }
+        }
+        if (root.isCompletedAbnormally()){
+            throw new IllegalStateException("Rendering a part failed", root.getException());
+        }
+    }
+
+    private void render_part(int p, int frames, boolean stereo){
+        if (stereo){
+            parts[p].render_stereo(part_buffers[p], 0, frames);
+        } else {
+            parts[p].render(part_buffers[p], 0, frames);
+        }
+    }
+
+    private void mix(float[] out, int offset, int samples){
+        System.arraycopy(part_buffers[0], 0, out, offset, samples);
+        for (int p = 1; p < parts.length; p++){
+            float[] buffer = part_buffers[p];
+            for (int i = 0; i < samples; i++){
+                out[offset + i] += buffer[i];
+            }
+        }
+    }
+
+    @Override
+    public void close(){
+        if (pool != null){
+            pool.shutdown();
+        }
+    }
+
+    private final class part_task extends RecursiveAction {
+        private final int part;
+
+        part_task(int part){
+            this.part = part;
+        }
+
+        @Override
+        protected void compute(){
+            render_part(part, block_frames, block_stereo);
+        }
+    }
+}
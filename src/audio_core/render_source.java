@@ -0,0 +1,37 @@
+package audio_core;
+
+/**
+ * Anything that can fill a block of float audio, such as a wave_script or
+ * a render_scheduler mixing several of them. Sources render mono, and
+ * interleaved stereo if they override render_stereo.
+ */
+public interface render_source {
+    /**
+     * Overwrites out[offset] to out[offset + frames - 1] with the next frames of
+     * audio, where 1.0 is full scale.
+     */
+    void render(float[] out, int offset, int frames);
+
+    /**
+     * Overwrites out[offset] to out[offset + 2 * frames - 1] with the next
+     * frames of audio as interleaved left and right samples. By default the
+     * mono render is panned to the centre.
+     */
+    default void render_stereo(float[] out, int offset, int frames){
+        render(out, offset, frames);
+        float gain = pan_law.CENTRE;
+        // Spread in place from the end, so no sample is overwritten before it is read
+        for (int i = frames - 1; i >= 0; i--){
+            float sample = out[offset + i] * gain;
+            out[offset + 2 * i] = sample;
+            out[offset + 2 * i + 1] = sample;
+        }
+    }
+
+    /**
+     * Number of voices currently sounding, for metrics.
+     */
+    default int active_voices(){
+        return 0;
+    }
+}
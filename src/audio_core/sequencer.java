@@ -1,30 +1,261 @@
 package audio_core;
-import audio_core.Note;
-public class sequencer {
+import audio_core.jfr.SequencerStepEvent;
+/**
+ * Steps through a song's patterns in order-list order, starting and stopping
+ * notes on each channel's wave_script.
+ *
+ * As a render_source the sequencer also owns the timing: it renders its
+ * output up to the exact sample the next row starts on, plays the row, then
+ * carries on, so notes start on the sample the tempo puts them on.
+ *
+ * While it plays, the song belongs to the audio thread. Other threads edit it
+ * through post_cell, which queues the edit on a command_ring; the audio thread
+ * applies queued edits at the start of each block. They read where playback
+ * is from position(), a snapshot the audio thread publishes as each row starts.
+ */
+public class sequencer implements render_source {
+    public static final int CHANNELS = 4;
+    /** Edits that can wait for the audio thread at once. */
+    public static final int COMMAND_CAPACITY = 1024;
+    private static final long NO_ROW = 0xFFFF;
     wave_script gen_script;
-    int[] notes_playing = new int[4];
-    byte[] velocity = new byte[4];
-    public int[][] sequence = new int[16][4];
-    public byte[][] sequence_velocity = new byte[16][4];
-    public boolean[][] sequence_active = new boolean[16][4];
+    public final wave_script[] channel_scripts;
+    public final pattern_store song;
+    int[] notes_playing;
+    public final sequencer_clock clock;
+    render_source output;
+    long frame_position = 0;
+    int order_position = 0;
+    int current_row = 0;
+
+    /** Edits waiting for the audio thread; see post_cell. */
+    public final command_ring commands = new command_ring(COMMAND_CAPACITY);
+    // Bound once, so draining does not allocate
+    private final command_ring.handler apply_command = this::apply_command;
+    // The row that started last, packed by pack_position; NO_ROW before the first
+    private volatile long published_position = NO_ROW;
+
+    /** Where playback is: the row that started most recently. */
+    public record position(int order_position, int pattern, int row) {
+        /** Whether a row has started since playback began. */
+        public boolean started(){
+            return row >= 0;
+        }
+    }
+
+    /**
+     * Plays a single 16-row pattern on four channels that share one script.
+     */
     public sequencer(wave_script script){
         this.gen_script = script;
+        this.song = pattern_store.single_pattern(pattern_store.DEFAULT_ROWS, CHANNELS);
+        this.channel_scripts = new wave_script[CHANNELS];
+        java.util.Arrays.fill(channel_scripts, script);
+        this.notes_playing = new int[CHANNELS];
+        this.clock = new sequencer_clock(script.SAMPLE_RATE);
+        this.output = script;
+
+    }
+    /**
+     * Plays each channel on its own script, so channels can be rendered on
+     * separate threads by a render_scheduler. Starts with a single 16-row pattern.
+     */
+    public sequencer(wave_script[] channel_scripts){
+        this(pattern_store.single_pattern(pattern_store.DEFAULT_ROWS, channel_scripts.length), channel_scripts);
+    }
+
+    /**
+     * Plays song, one script per channel of the song.
+     */
+    public sequencer(pattern_store song, wave_script[] channel_scripts){
+        if (channel_scripts.length != song.channels()){
+            throw new IllegalArgumentException("Expected " + song.channels() + " channel scripts, got " + channel_scripts.length);
+        }
+        this.gen_script = channel_scripts[0];
+        this.song = song;
+        this.channel_scripts = channel_scripts;
+        this.notes_playing = new int[channel_scripts.length];
+        this.clock = new sequencer_clock(gen_script.SAMPLE_RATE);
+        this.output = new render_scheduler(channel_scripts, 1);
+    }
+
+    /**
+     * Sets what renders the channel scripts, e.g. a multi-threaded render_scheduler.
+     */
+    public void set_output(render_source output){
+        this.output = output;
+    }
+
+    /**
+     * Retunes every channel. Safe while playing: notes already sounding keep
+     * their pitch and new notes use the new tuning.
+     */
+    public void set_tuning(tuning t){
+        for (wave_script script : channel_scripts){
+            script.set_tuning(t);
+        }
+    }
+
+    /**
+     * Renders frames of audio, playing each row on the exact sample it is due.
+     */
+    @Override
+    public void render(float[] out, int offset, int frames){
+        render(out, offset, frames, false);
+    }
+
+    /**
+     * Renders frames of interleaved stereo audio, playing each row on the
+     * exact frame it is due.
+     */
+    @Override
+    public void render_stereo(float[] out, int offset, int frames){
+        render(out, offset, frames, true);
+    }
+
+    private void render(float[] out, int offset, int frames, boolean stereo){
+        commands.drain(apply_command);
+        while (frames > 0){
+            long until_row = clock.next_row_frame() - frame_position;
+            if (until_row <= 0){
+                call_note_sequence(current_row);
+                published_position = pack_position(order_position, current_pattern(), current_row);
+                next_row();
+                clock.advance();
+                continue;
+            }
+            int chunk = (int) Math.min(frames, until_row);
+            if (stereo){
+                output.render_stereo(out, offset, chunk);
+                offset += 2 * chunk;
+            } else {
+                output.render(out, offset, chunk);
+                offset += chunk;
+            }
+            frames -= chunk;
+            frame_position += chunk;
+        }
+    }
+
+    @Override
+    public int active_voices(){
+        return output.active_voices();
+    }
 
+    /** Frames rendered since playback started. */
+    public long frame_position(){
+        return frame_position;
     }
+
+    /** Number of rows played since playback started. */
+    public long rows_played(){
+        return clock.row();
+    }
+
+    /** Position in the song's order list of the pattern playing. */
+    public int order_position(){
+        return order_position;
+    }
+
+    /** The pattern playing. */
+    public int current_pattern(){
+        return song.order_at(order_position);
+    }
+
+    /** The row of the current pattern that plays next. */
+    public int current_row(){
+        return current_row;
+    }
+
+    /**
+     * Rewinds to the first row of the first pattern in the order list.
+     */
+    public void reset(){
+        clock.reset();
+        frame_position = 0;
+        order_position = 0;
+        current_row = 0;
+        published_position = NO_ROW;
+    }
+
+    /**
+     * Queues a cell edit for the audio thread, which applies it before the
+     * next block. Call from one thread only, normally the UI thread; cells
+     * should not be written directly while the sequencer is playing.
+     * @return false if too many edits are waiting, in which case nothing changes
+     */
+    public boolean post_cell(int pattern, int row, int channel, long cell){
+        if (row < 0 || row >= song.rows(pattern) || channel < 0 || channel >= song.channels()){
+            throw new IndexOutOfBoundsException("Cell " + row + ", " + channel + " of pattern " + pattern);
+        }
+        return commands.offer(command_ring.SET_CELL, pattern, row * song.channels() + channel, cell);
+    }
+
+    // Applies one queued edit; audio thread only
+    private void apply_command(int op, int pattern, int index, long value){
+        if (op == command_ring.SET_CELL){
+            song.cells(pattern)[index] = value;
+            song.mark_dirty(pattern);
+        }
+    }
+
+    /**
+     * The most recently published playback position. Safe to call from any
+     * thread; the fields always describe the same row.
+     */
+    public position position(){
+        long packed = published_position;
+        int row = (int) (packed & 0xFFFF);
+        return new position((int) (packed >>> 32 & 0xFFFF), (int) (packed >>> 16 & 0xFFFF),
+                row == 0xFFFF ? -1 : row);
+    }
+
+    private static long pack_position(int order_position, int pattern, int row){
+        return (long) (order_position & 0xFFFF) << 32 | (long) (pattern & 0xFFFF) << 16 | (row & 0xFFFF);
+    }
+
+    // Moves to the next row, then on through the order list, looping at the end
+    private void next_row(){
+        current_row++;
+        if (current_row >= song.rows(current_pattern())){
+            current_row = 0;
+            order_position = (order_position + 1) % song.order_length();
+        }
+        // The order list may have been shortened since the last row
+        if (order_position >= song.order_length()){
+            order_position = 0;
+        }
+    }
+
+    /**
+     * Plays row t of the current pattern.
+     */
     public void call_note_sequence(int t){
-        for (int i=0; i<4;i++){
-            if (notes_playing[i] != sequence[t][i]){
-                int note_index = gen_script.get_note_index(new Note(notes_playing[i]));
-                if (note_index!=-1) {
-                    gen_script.remove_note(note_index);
-                }
-                if (sequence_active[t][i]) {
-                    gen_script.note_start(new Note(sequence[t][i], sequence_velocity[t][i]));
+        SequencerStepEvent event = new SequencerStepEvent();
+        event.begin();
+        int changed = 0;
+        long[] cells = song.cells(current_pattern());
+        int base = t * notes_playing.length;
+        for (int i=0; i<notes_playing.length;i++){
+            long cell = cells[base + i];
+            int note = pattern_store.note(cell);
+            if (notes_playing[i] != note){
+                changed++;
+                wave_script script = channel_scripts[i];
+                script.note_stop(notes_playing[i]);
+                if (pattern_store.active(cell)) {
+                    script.note_start(note, pattern_store.velocity(cell), pattern_store.pan(cell));
                 }
-                notes_playing[i] = sequence[t][i];
+                notes_playing[i] = note;
             }
 
         }
-        System.out.println(notes_playing);
+        if (event.shouldCommit()){
+            event.row = t;
+            event.frame = frame_position;
+            event.notesChanged = changed;
+            event.voices = active_voices();
+            event.commit();
+        }
     }
 }
@@ -0,0 +1,113 @@
+package audio_core;
+
+/**
+ * Turns tempo, rows per beat and swing into the exact sample each sequencer
+ * row starts on.
+ *
+ * Row start frames are computed from the row number rather than by adding up
+ * row lengths, so rounding never accumulates. Changing the tempo re-anchors
+ * the calculation at the next row, so rows already played are not affected.
+ */
+public class sequencer_clock {
+    public final int sample_rate;
+    private double bpm = 120;
+    private int rows_per_beat = 4;
+    private double swing = 0;
+
+    // Rows are timed from this row and the frame it started on
+    private long anchor_row = 0;
+    private double anchor_frame = 0;
+    private long row = 0;
+
+    public sequencer_clock(int sample_rate){
+        this.sample_rate = sample_rate;
+    }
+
+    public double bpm(){
+        return bpm;
+    }
+
+    public int rows_per_beat(){
+        return rows_per_beat;
+    }
+
+    public double swing(){
+        return swing;
+    }
+
+    public void set_tempo(double bpm, int rows_per_beat){
+        if (bpm <= 0 || rows_per_beat <= 0){
+            throw new IllegalArgumentException("Tempo must be positive, got " + bpm + " BPM at " + rows_per_beat + " rows per beat");
+        }
+        reanchor();
+        this.bpm = bpm;
+        this.rows_per_beat = rows_per_beat;
+    }
+
+    /**
+     * Sets how late odd rows start, as a fraction of a row: 0 is straight,
+     * 1/3 gives a triplet feel. Must be in [0, 1).
+     */
+    public void set_swing(double swing){
+        if (swing < 0 || swing >= 1){
+            throw new IllegalArgumentException("Swing must be in [0, 1), got " + swing);
+        }
+        reanchor();
+        this.swing = swing;
+    }
+
+    public double samples_per_row(){
+        return sample_rate * 60.0 / (bpm * rows_per_beat);
+    }
+
+    /** Number of rows started so far. */
+    public long row(){
+        return row;
+    }
+
+    /**
+     * Frame the given row starts on, counted from when the clock was reset.
+     */
+    public long row_frame(long r){
+        return Math.round(row_frame_exact(r));
+    }
+
+    /** Frame the next row starts on. */
+    public long next_row_frame(){
+        return row_frame(row);
+    }
+
+    /**
+     * Marks the next row as started.
+     */
+    public void advance(){
+        row++;
+    }
+
+    public void reset(){
+        anchor_row = 0;
+        anchor_frame = 0;
+        row = 0;
+    }
+
+    private double swing_offset(double length){
+        return length * (1 + swing);
+    }
+
+    private void reanchor(){
+        anchor_frame = row_frame_exact(row);
+        anchor_row = row;
+    }
+
+    private double row_frame_exact(long r){
+        double length = samples_per_row();
+        // Rows are laid out in straight pairs; swing only delays the odd row of each pair
+        long first_pair = anchor_row >> 1;
+        double pair_start = anchor_frame - (anchor_row & 1) * swing_offset(length);
+        double frame = pair_start + ((r >> 1) - first_pair) * 2 * length;
+        if ((r & 1) == 1){
+            frame += swing_offset(length);
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,38 @@
+package audio_core;
+
+/**
+ * Shared single-cycle sine lookup table.
+ *
+ * The table holds SIZE samples of one sine period plus a guard sample equal to
+ * the first one, so {@link #lookup(float[], double)} can always read index+1
+ * without wrapping. Any table built the same way (power of two + 1 guard) can
+ * be read with the same lookup.
+ */
+public class sine_table {
+    public static final int SIZE_BITS = 12;
+    public static final int SIZE = 1 << SIZE_BITS; // 4096 samples per cycle
+    public static final float[] TABLE = new float[SIZE + 1];
+
+    static {
+        for (int i = 0; i < SIZE; i++) {
+            TABLE[i] = (float) Math.sin(2.0 * Math.PI * i / SIZE);
+        }
+        TABLE[SIZE] = TABLE[0];
+    }
+
+    private sine_table() {
+    }
+
+    /**
+     * Reads a guarded table with linear interpolation.
+     * @param table table of (power of two + 1) samples
+     * @param phase position in the cycle, in [0, 1)
+     */
+    public static float lookup(float[] table, double phase) {
+        double pos = phase * (table.length - 1);
+        int i = (int) pos;
+        float frac = (float) (pos - i);
+        float a = table[i];
+        return a + (table[i + 1] - a) * frac;
+    }
+}
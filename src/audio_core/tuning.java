@@ -0,0 +1,230 @@
+package audio_core;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The frequency of every note number: 12-tone equal temperament, or a
+ * Scala scale (.scl) with an optional keyboard mapping (.kbm).
+ *
+ * A tuning is immutable. wave_script looks notes up in a table of phase
+ * increments built from it for its sample rate, so starting a note costs one
+ * array read, and retuning swaps in a whole new table at once.
+ */
+public class tuning {
+    /** Note numbers 0 to NOTES - 1 are tuned; higher ones play the top note. */
+    public static final int NOTES = 256;
+
+    /** 12-tone equal temperament with A4 (note 69) at 440 Hz. */
+    public static final tuning EQUAL_TEMPERAMENT = equal_temperament(440);
+
+    public final String description;
+    // Frequency in Hz per note; 0 for notes the keyboard mapping leaves out
+    private final double[] frequency;
+    private final ConcurrentHashMap<Integer, double[]> increments = new ConcurrentHashMap<>();
+
+    private tuning(String description, double[] frequency){
+        this.description = description;
+        this.frequency = frequency;
+    }
+
+    /** 12-tone equal temperament with A4 (note 69) at the given frequency. */
+    public static tuning equal_temperament(double a4){
+        double[] frequency = new double[NOTES];
+        for (int n = 0; n < NOTES; n++){
+            frequency[n] = a4 * Math.pow(2, (n - 69) / 12.0);
+        }
+        return new tuning("12-tone equal temperament, A4 = " + a4 + " Hz", frequency);
+    }
+
+    /**
+     * Loads a Scala scale, mapped linearly with scale degree 0 on note 60
+     * and note 69 at 440 Hz.
+     */
+    public static tuning scala(Path scl) throws IOException {
+        return scala(scl, null);
+    }
+
+    /**
+     * Loads a Scala scale with a Scala keyboard mapping, or the default
+     * linear mapping if kbm is null.
+     */
+    public static tuning scala(Path scl, Path kbm) throws IOException {
+        List<String> scale_lines = data_lines(scl);
+        if (scale_lines.size() < 2){
+            throw new IOException(scl + " is not a Scala scale");
+        }
+        String description = scale_lines.get(0);
+        int count = parse_int(scale_lines.get(1), scl);
+        if (count < 1 || scale_lines.size() < 2 + count){
+            throw new IOException(scl + " lists " + count + " pitches but has " + (scale_lines.size() - 2));
+        }
+        // Cents of each degree above degree 0; the last entry is the period, usually the octave
+        double[] cents = new double[count + 1];
+        for (int i = 0; i < count; i++){
+            cents[i + 1] = parse_pitch(scale_lines.get(2 + i), scl);
+        }
+
+        keyboard_map map = kbm == null ? keyboard_map.linear(count) : keyboard_map.parse(kbm, count);
+        double[] note_cents = new double[NOTES];
+        boolean[] mapped = new boolean[NOTES];
+        for (int n = 0; n < NOTES; n++){
+            if (n < map.first_note || n > map.last_note){
+                continue;
+            }
+            int offset = n - map.middle_note;
+            int size = map.mapping.length;
+            int repeat = Math.floorDiv(offset, size);
+            int degree = map.mapping[Math.floorMod(offset, size)];
+            if (degree < 0){
+                continue;
+            }
+            note_cents[n] = degree_cents(cents, degree) + repeat * degree_cents(cents, map.octave_degree);
+            mapped[n] = true;
+        }
+        int reference = map.reference_note;
+        if (reference < 0 || reference >= NOTES || !mapped[reference]){
+            throw new IOException("The reference note " + reference + " is not mapped to a scale degree");
+        }
+        double[] frequency = new double[NOTES];
+        for (int n = 0; n < NOTES; n++){
+            if (mapped[n]){
+                frequency[n] = map.reference_frequency * Math.pow(2, (note_cents[n] - note_cents[reference]) / 1200);
+            }
+        }
+        return new tuning(description, frequency);
+    }
+
+    // Cents of any scale degree, including ones past the period or below 0
+    private static double degree_cents(double[] cents, int degree){
+        int count = cents.length - 1;
+        return Math.floorDiv(degree, count) * cents[count] + cents[Math.floorMod(degree, count)];
+    }
+
+    /** Frequency of a note in Hz, or 0 if the keyboard mapping leaves it out. */
+    public double frequency(int note){
+        return frequency[Math.clamp(note, 0, NOTES - 1)];
+    }
+
+    /**
+     * Phase increment per sample of every note at a sample rate. Built once
+     * per rate and shared; do not modify.
+     */
+    public double[] increments(int sample_rate){
+        return increments.computeIfAbsent(sample_rate, rate -> {
+            double[] table = new double[NOTES];
+            for (int n = 0; n < NOTES; n++){
+                table[n] = frequency[n] / rate;
+            }
+            return table;
+        });
+    }
+
+    @Override
+    public String toString(){
+        return description;
+    }
+
+    // --- Scala files ---
+
+    /** A .kbm keyboard mapping. Unmapped keys are -1 in mapping. */
+    private record keyboard_map(int first_note, int last_note, int middle_note, int reference_note,
+                                double reference_frequency, int octave_degree, int[] mapping) {
+
+        static keyboard_map linear(int scale_size){
+            int[] mapping = new int[scale_size];
+            for (int i = 0; i < scale_size; i++){
+                mapping[i] = i;
+            }
+            return new keyboard_map(0, NOTES - 1, 60, 69, 440, scale_size, mapping);
+        }
+
+        static keyboard_map parse(Path kbm, int scale_size) throws IOException {
+            List<String> lines = data_lines(kbm);
+            if (lines.size() < 7){
+                throw new IOException(kbm + " is not a Scala keyboard mapping");
+            }
+            int size = parse_int(lines.get(0), kbm);
+            int first = parse_int(lines.get(1), kbm);
+            int last = parse_int(lines.get(2), kbm);
+            int middle = parse_int(lines.get(3), kbm);
+            int reference = parse_int(lines.get(4), kbm);
+            double frequency = parse_double(lines.get(5), kbm);
+            int octave_degree = parse_int(lines.get(6), kbm);
+            if (size == 0){
+                // A map size of 0 means linear: every key plays the next degree
+                keyboard_map linear = linear(scale_size);
+                return new keyboard_map(first, last, middle, reference, frequency,
+                        octave_degree == 0 ? scale_size : octave_degree, linear.mapping);
+            }
+            int[] mapping = new int[size];
+            for (int i = 0; i < size; i++){
+                // Keys past the end of the listed mapping are unmapped
+                String entry = 7 + i < lines.size() ? first_word(lines.get(7 + i)) : "x";
+                mapping[i] = entry.equalsIgnoreCase("x") ? -1 : parse_int(entry, kbm);
+            }
+            return new keyboard_map(first, last, middle, reference, frequency,
+                    octave_degree == 0 ? scale_size : octave_degree, mapping);
+        }
+    }
+
+    // Lines that are not comments, trimmed
+    private static List<String> data_lines(Path path) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(path, StandardCharsets.ISO_8859_1)){
+            if (!line.startsWith("!")){
+                lines.add(line.trim());
+            }
+        }
+        return lines;
+    }
+
+    // A pitch line: cents if it has a decimal point, otherwise a ratio or whole number
+    private static double parse_pitch(String line, Path path) throws IOException {
+        String pitch = first_word(line);
+        try {
+            if (pitch.contains(".")){
+                return Double.parseDouble(pitch);
+            }
+            int slash = pitch.indexOf('/');
+            double ratio = slash == -1 ? Long.parseLong(pitch)
+                    : (double) Long.parseLong(pitch.substring(0, slash)) / Long.parseLong(pitch.substring(slash + 1));
+            if (ratio <= 0){
+                throw new IOException(path + ": pitch " + pitch + " is not positive");
+            }
+            return 1200 * Math.log(ratio) / Math.log(2);
+        } catch (NumberFormatException e) {
+            throw new IOException(path + ": cannot read pitch \"" + line + "\"", e);
+        }
+    }
+
+    private static int parse_int(String line, Path path) throws IOException {
+        try {
+            return Integer.parseInt(first_word(line));
+        } catch (NumberFormatException e) {
+            throw new IOException(path + ": expected a whole number, got \"" + line + "\"", e);
+        }
+    }
+
+    private static double parse_double(String line, Path path) throws IOException {
+        try {
+            return Double.parseDouble(first_word(line));
+        } catch (NumberFormatException e) {
+            throw new IOException(path + ": expected a number, got \"" + line + "\"", e);
+        }
+    }
+
+    private static String first_word(String line){
+        String trimmed = line.trim();
+        int end = 0;
+        while (end < trimmed.length() && !Character.isWhitespace(trimmed.charAt(end))){
+            end++;
+        }
+        return trimmed.substring(0, end);
+    }
+}
@@ -0,0 +1,200 @@
+package audio_core;
+
+/**
+ * Fixed-size pool of oscillator voices owned by one wave_script.
+ *
+ * Voice state is kept as parallel arrays indexed by voice number. Playing
+ * voices are also kept in a dense list, so rendering only visits voices that
+ * are sounding. Voices are indexed by note through per-note chains, so finding
+ * or releasing a note does not scan the pool. When every voice is busy a new
+ * note steals one according to the pool's {@link steal_policy}.
+ */
+public class voice_pool {
+
+    public enum steal_policy {
+        /** Steal the voice that started first. */
+        OLDEST,
+        /** Steal the voice with the lowest amplitude, oldest first on ties. */
+        QUIETEST,
+        /** Retrigger a voice already playing the same note, otherwise steal the oldest. */
+        SAME_NOTE
+    }
+
+    /** Number of note chains; notes outside 0-255 share a chain but still resolve correctly. */
+    static final int NOTE_CHAINS = 256;
+
+    public final int capacity;
+    public steal_policy policy = steal_policy.OLDEST;
+
+    // Per-voice state
+    public final int[] note;
+    public final double[] phase;
+    public final double[] increment;
+    public final float[] amplitude;
+    public final byte[] pan;
+    public final float[][] table;
+    final long[] started;
+
+    // Dense list of playing voices; slot[v] is v's position in it, or -1 when idle
+    final int[] active;
+    final int[] slot;
+    int active_count = 0;
+
+    // Stack of idle voices
+    final int[] free;
+    int free_count;
+
+    // Voices playing each note, most recent first
+    final int[] chain_head = new int[NOTE_CHAINS];
+    final int[] chain_next;
+    final int[] chain_prev;
+
+    long start_counter = 0;
+
+    public voice_pool(int capacity){
+        if (capacity < 1) {
+            throw new IllegalArgumentException("A voice pool needs at least one voice, got " + capacity);
+        }
+        this.capacity = capacity;
+        note = new int[capacity];
+        phase = new double[capacity];
+        increment = new double[capacity];
+        amplitude = new float[capacity];
+        pan = new byte[capacity];
+        table = new float[capacity][];
+        started = new long[capacity];
+        active = new int[capacity];
+        slot = new int[capacity];
+        free = new int[capacity];
+        chain_next = new int[capacity];
+        chain_prev = new int[capacity];
+        java.util.Arrays.fill(chain_head, -1);
+        clear();
+    }
+
+    /**
+     * Releases every voice.
+     */
+    public void clear(){
+        for (int k = active_count - 1; k >= 0; k--) {
+            release(active[k]);
+        }
+        free_count = capacity;
+        for (int i = 0; i < capacity; i++) {
+            // Hand out low voice numbers first
+            free[i] = capacity - 1 - i;
+            slot[i] = -1;
+        }
+    }
+
+    /**
+     * Starts a voice, stealing one if the pool is full.
+     * @return the voice number now playing the note
+     */
+    public int start(int note_value, float voice_amplitude, byte voice_pan, double phase_increment, float[] voice_table){
+        if (free_count == 0) {
+            release(steal_victim(note_value));
+        }
+        int v = free[--free_count];
+
+        note[v] = note_value;
+        phase[v] = 0.0;
+        // Only the fractional part matters for a wrapping phase, and keeping the
+        // increment below 1 lets the phase wrap with a single subtraction
+        increment[v] = phase_increment - (long) phase_increment;
+        amplitude[v] = voice_amplitude;
+        pan[v] = voice_pan;
+        table[v] = voice_table;
+        started[v] = start_counter++;
+
+        slot[v] = active_count;
+        active[active_count++] = v;
+
+        int chain = note_value & (NOTE_CHAINS - 1);
+        int head = chain_head[chain];
+        chain_prev[v] = -1;
+        chain_next[v] = head;
+        if (head != -1) {
+            chain_prev[head] = v;
+        }
+        chain_head[chain] = v;
+        return v;
+    }
+
+    /**
+     * Returns the most recently started voice playing a note, or -1.
+     */
+    public int find(int note_value){
+        int v = chain_head[note_value & (NOTE_CHAINS - 1)];
+        while (v != -1 && note[v] != note_value) {
+            v = chain_next[v];
+        }
+        return v;
+    }
+
+    /**
+     * Stops a voice and returns it to the pool. Releasing an idle voice does nothing.
+     */
+    public void release(int v){
+        int position = slot[v];
+        if (position == -1) {
+            return;
+        }
+        // Keep the active list dense by moving the last entry into the gap
+        int last = active[--active_count];
+        active[position] = last;
+        slot[last] = position;
+        slot[v] = -1;
+
+        int prev = chain_prev[v];
+        int next = chain_next[v];
+        if (prev != -1) {
+            chain_next[prev] = next;
+        } else {
+            chain_head[note[v] & (NOTE_CHAINS - 1)] = next;
+        }
+        if (next != -1) {
+            chain_prev[next] = prev;
+        }
+
+        table[v] = null;
+        free[free_count++] = v;
+    }
+
+    public boolean is_active(int v){
+        return slot[v] != -1;
+    }
+
+    public int active_count(){
+        return active_count;
+    }
+
+    /**
+     * Returns the voice at a position in the dense active list.
+     */
+    public int active_voice(int k){
+        return active[k];
+    }
+
+    int steal_victim(int note_value){
+        if (policy == steal_policy.SAME_NOTE) {
+            int same = find(note_value);
+            if (same != -1) {
+                return same;
+            }
+        }
+        boolean quietest = policy == steal_policy.QUIETEST;
+        int victim = active[0];
+        for (int k = 1; k < active_count; k++) {
+            int v = active[k];
+            if (quietest && amplitude[v] != amplitude[victim]) {
+                if (amplitude[v] < amplitude[victim]) {
+                    victim = v;
+                }
+            } else if (started[v] < started[victim]) {
+                victim = v;
+            }
+        }
+        return victim;
+    }
+}
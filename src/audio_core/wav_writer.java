@@ -0,0 +1,166 @@
+package audio_core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams float audio to a WAV file block by block.
+ *
+ * The header is written up front with zero sizes and patched with the real
+ * sizes on close, so memory use does not depend on how long the file gets.
+ * PCM is converted by pcm_encoder, the same as live playback, so a bounce
+ * holds exactly the samples the sound card would get. A WAV file's sizes are
+ * 32-bit, so write refuses audio that would take it past 4 GiB.
+ */
+public class wav_writer implements AutoCloseable {
+
+    public enum sample_format {
+        PCM_16(2, 1),
+        PCM_24(3, 1),
+        FLOAT_32(4, 3);
+
+        public final int bytes;
+        final int format_tag;
+
+        sample_format(int bytes, int format_tag){
+            this.bytes = bytes;
+            this.format_tag = format_tag;
+        }
+    }
+
+    private static final int BUFFER_FRAMES = 4096;
+    /** Largest RIFF chunk size a WAV header can hold. */
+    static final long MAX_RIFF_SIZE = 0xFFFFFFFFL;
+
+    private final FileChannel channel;
+    private final sample_format format;
+    private final int channels;
+    private final byte[] bytes;
+    private final ByteBuffer buffer;
+    private final long riff_size_offset = 4;
+    private final long fact_offset;
+    private final long data_size_offset;
+    private final long data_start;
+    private long frames_written = 0;
+
+    public wav_writer(Path path, int sample_rate, int channels, sample_format format) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.format = format;
+        this.channels = channels;
+        this.bytes = new byte[BUFFER_FRAMES * channels * format.bytes];
+        this.buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+
+        boolean is_float = format == sample_format.FLOAT_32;
+        int block_align = channels * format.bytes;
+        ByteBuffer header = ByteBuffer.allocate(58).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(ascii("RIFF")).putInt(0).put(ascii("WAVE"));
+        header.put(ascii("fmt ")).putInt(is_float ? 18 : 16);
+        header.putShort((short) format.format_tag);
+        header.putShort((short) channels);
+        header.putInt(sample_rate);
+        header.putInt(sample_rate * block_align);
+        header.putShort((short) block_align);
+        header.putShort((short) (format.bytes * 8));
+        if (is_float) {
+            // Non-PCM formats carry an extension size and a fact chunk with the frame count
+            header.putShort((short) 0);
+            header.put(ascii("fact")).putInt(4);
+            fact_offset = header.position();
+            header.putInt(0);
+        } else {
+            fact_offset = -1;
+        }
+        header.put(ascii("data"));
+        data_size_offset = header.position();
+        header.putInt(0);
+        data_start = header.position();
+        header.flip();
+        write_fully(header, 0);
+        channel.position(data_start);
+    }
+
+    /**
+     * Appends interleaved frames, where 1.0 is full scale. PCM output is clamped.
+     * @throws IOException if the frames would make the file larger than a WAV
+     *         header can describe; nothing is written in that case
+     */
+    public void write(float[] samples, int offset, int frames) throws IOException {
+        long data_bytes = (frames_written + frames) * channels * format.bytes;
+        if (data_start - 8 + data_bytes > MAX_RIFF_SIZE){
+            throw new IOException("WAV file would pass 4 GiB after " + frames_written
+                    + " frames; bounce shorter stems or a smaller sample format");
+        }
+        int end = offset + frames * channels;
+        int sample_bytes = format.bytes;
+        while (offset < end){
+            if (buffer.remaining() < sample_bytes) {
+                flush_buffer();
+            }
+            int count = Math.min(end - offset, buffer.remaining() / sample_bytes);
+            encode(samples, offset, count);
+            offset += count;
+        }
+        frames_written += frames;
+    }
+
+    private void encode(float[] samples, int offset, int count){
+        switch (format){
+            case PCM_16, PCM_24 -> {
+                int position = buffer.position();
+                pcm_encoder.encode(samples, offset, bytes, position, count, format.bytes * 8);
+                buffer.position(position + count * format.bytes);
+            }
+            case FLOAT_32 -> {
+                for (int i = offset; i < offset + count; i++){
+                    buffer.putFloat(samples[i]);
+                }
+            }
+        }
+    }
+
+    public long frames_written(){
+        return frames_written;
+    }
+
+    /**
+     * Writes any buffered audio, patches the header sizes and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush_buffer();
+            long data_bytes = frames_written * channels * format.bytes;
+            ByteBuffer size = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            write_fully(size.putInt(0, (int) (data_start + data_bytes - 8)), riff_size_offset);
+            write_fully(size.clear().putInt(0, (int) data_bytes), data_size_offset);
+            if (fact_offset != -1) {
+                write_fully(size.clear().putInt(0, (int) frames_written), fact_offset);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void flush_buffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void write_fully(ByteBuffer source, long position) throws IOException {
+        while (source.hasRemaining()) {
+            position += channel.write(source, position);
+        }
+    }
+
+    private static byte[] ascii(String text){
+        return text.getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+    }
+}
@@ -1,57 +1,326 @@
 package audio_core;
 
-public abstract class wave_script {
-    public static Note[] notes = new Note[16];
+import audio_core.jfr.RenderBlockEvent;
+
+public abstract class wave_script implements render_source {
+    public static final int DEFAULT_POLYPHONY = 16;
+    public final voice_pool voices;
     int SAMPLE_RATE = 44100;
+    private volatile tuning tuning = audio_core.tuning.EQUAL_TEMPERAMENT;
+    // Phase increment per note for the tuning at SAMPLE_RATE, replaced whole on retuning
+    private volatile double[] increments = tuning.increments(SAMPLE_RATE);
+
+    /** True when the jdk.incubator.vector module has been added to this JVM. */
+    public static final boolean SIMD_AVAILABLE =
+            ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    /**
+     * Render with the Vector API when it is available. Defaults to the
+     * uwu.simd system property; both paths match within a small tolerance
+     * (see simd_render.main).
+     */
+    public boolean use_simd = Boolean.getBoolean("uwu.simd");
+    private simd_render simd;
+
+    // Groups voices by pan for render_stereo in one pass. A pan's entries are
+    // only valid when its stamp equals pan_generation, so nothing is cleared per block.
+    private final int[] pan_stamp = new int[256];
+    private final int[] pan_end = new int[256];
+    private final byte[] pan_order = new byte[256]; // Distinct pans, in order of first appearance
+    private int pan_generation = 0;
+    private final int[] by_pan; // Active voices, grouped by pan
+
+    public wave_script(){
+        this(DEFAULT_POLYPHONY);
+    }
+    public wave_script(int polyphony){
+        this.voices = new voice_pool(polyphony);
+        this.by_pan = new int[polyphony];
+    }
+
+    /**
+     * Starts a voice for the note. If every voice is busy one is stolen
+     * according to voices.policy.
+     * @return the voice number playing the note
+     */
+    public int note_start(Note note){
+        return note_start(note.note, note.velocity, note.pan);
+    }
+    /**
+     * Starts a voice without needing a Note object, so the audio thread does
+     * not allocate per note.
+     * @return the voice number playing the note
+     */
+    public int note_start(int note, byte velocity, byte pan){
+        double increment = phase_increment(note);
+        // Notes the tuning leaves unmapped take a voice but stay silent
+        float amplitude = increment == 0 ? 0f : (velocity + 127) / 127f;
+        return voices.start(note, amplitude, pan, increment, table_for(increment));
+    }
+    /**
+     * Stops the most recently started voice playing the note, if any.
+     */
+    public void note_stop(int note){
+        int voice = voices.find(note);
+        if (voice != -1){
+            voices.release(voice);
+        }
+    }
+    /**
+     * Returns the voice playing the given note, or -1 if it is not playing.
+     */
+    public int get_note_index(Note note){
+        return voices.find(note.note);
+    }
+    public void remove_note(int i){
+        voices.release(i);
+    }
 
-    public static void note_start(Note note){
-        //if (get_note_index(note)!=-1){
-            for (int i = 0; i<notes.length;i++) {
-                if ((notes[i]==null) || (notes[i].active==false)) {
-                    notes[i] = note;
-                    return;
+    /** Frames rendered per pass when generating into a byte buffer. */
+    public static final int BLOCK_SIZE = 1024;
+    private final float[] mix_buffer = new float[BLOCK_SIZE];
+
+    /**
+     * Renders a block of mono audio into a caller-owned buffer, overwriting
+     * out[offset] to out[offset + frames - 1]. Samples are floats where 1.0 is
+     * full scale. Each voice is rendered over the whole block before moving on
+     * to the next, and nothing is allocated.
+     */
+    @Override
+    public void render(float[] out, int offset, int frames){
+        RenderBlockEvent event = new RenderBlockEvent();
+        event.begin();
+        java.util.Arrays.fill(out, offset, offset + frames, 0f);
+        boolean vectorised = vectorised();
+        for (int k = 0; k < voices.active_count; k++){
+            add_voice(voices.active[k], out, offset, frames, vectorised);
+        }
+        if (event.shouldCommit()){
+            event.frames = frames;
+            event.voices = voices.active_count;
+            event.simd = vectorised;
+            event.commit();
+        }
+    }
+
+    /**
+     * Renders a block of interleaved stereo audio, placing each voice by its
+     * pan with pan_law. Voices sharing a pan are rendered together in mono
+     * and spread to both sides once, so the usual case of one pan per
+     * channel costs a single extra pass over the block and can still use
+     * the SIMD path.
+     */
+    @Override
+    public void render_stereo(float[] out, int offset, int frames){
+        java.util.Arrays.fill(out, offset, offset + 2 * frames, 0f);
+        while (frames > 0){
+            int block = Math.min(frames, BLOCK_SIZE);
+            if (voices.active_count > 0 && pan_group_end(0) == voices.active_count){
+                render(mix_buffer, 0, block);
+                spread(voices.pan[voices.active[0]], out, offset, block);
+            } else {
+                boolean vectorised = vectorised();
+                int groups = group_by_pan();
+                int start = 0;
+                for (int g = 0; g < groups; g++){
+                    byte pan = pan_order[g];
+                    int end = pan_end[pan + 128];
+                    java.util.Arrays.fill(mix_buffer, 0, block, 0f);
+                    for (int i = start; i < end; i++){
+                        add_voice(by_pan[i], mix_buffer, 0, block, vectorised);
+                    }
+                    spread(pan, out, offset, block);
+                    start = end;
                 }
             }
-        //}
+            offset += 2 * block;
+            frames -= block;
+        }
     }
-    public static int get_note_index(Note note){
-        for (int i = 0; i<notes.length;i++){
-            Note n = notes[i];
-            if (n != null){
-            if (n.note==note.note){
-                return i;
-            }}
+
+    // Index of the first active voice from k on whose pan differs from voice k's
+    private int pan_group_end(int k){
+        byte pan = voices.pan[voices.active[k]];
+        int end = k + 1;
+        while (end < voices.active_count && voices.pan[voices.active[end]] == pan){
+            end++;
         }
-        return -1;
+        return end;
     }
-    public void remove_note(int i){
-        notes[i].active = false;
+
+    /**
+     * Sorts the active voices into by_pan, grouped by pan in order of first
+     * appearance and keeping their order within a group. Group g ends at
+     * pan_end[pan_order[g] + 128]. A counting sort, so linear in the voices.
+     * @return the number of groups
+     */
+    private int group_by_pan(){
+        if (++pan_generation == 0){
+            java.util.Arrays.fill(pan_stamp, 0);
+            pan_generation = 1;
+        }
+        int groups = 0;
+        for (int k = 0; k < voices.active_count; k++){
+            int p = voices.pan[voices.active[k]] + 128;
+            if (pan_stamp[p] != pan_generation){
+                pan_stamp[p] = pan_generation;
+                pan_end[p] = 0;
+                pan_order[groups++] = (byte) (p - 128);
+            }
+            pan_end[p]++;
+        }
+        // Counts become each group's first slot, then advance to its end as voices are placed
+        int start = 0;
+        for (int g = 0; g < groups; g++){
+            int p = pan_order[g] + 128;
+            int count = pan_end[p];
+            pan_end[p] = start;
+            start += count;
+        }
+        for (int k = 0; k < voices.active_count; k++){
+            int v = voices.active[k];
+            by_pan[pan_end[voices.pan[v] + 128]++] = v;
+        }
+        return groups;
+    }
+
+    // Adds mix_buffer[0..frames) to both sides of out at the pan's gains
+    private void spread(byte pan, float[] out, int offset, int frames){
+        float left = pan_law.left(pan);
+        float right = pan_law.right(pan);
+        for (int i = 0; i < frames; i++){
+            float sample = mix_buffer[i];
+            out[offset + 2 * i] += sample * left;
+            out[offset + 2 * i + 1] += sample * right;
+        }
+    }
+
+    @Override
+    public int active_voices(){
+        return voices.active_count;
+    }
+
+    // Whether render_voice can be replaced by the SIMD path for this block
+    private boolean vectorised(){
+        if (!use_simd || !SIMD_AVAILABLE || !plays_cycles()){
+            return false;
+        }
+        if (simd == null){
+            simd = simd_render.create();
+        }
+        return true;
+    }
+
+    private void add_voice(int v, float[] out, int offset, int frames, boolean vectorised){
+        if (vectorised){
+            simd.render_voice(voices, v, out, offset, frames);
+        } else {
+            render_voice(v, out, offset, frames);
+        }
+    }
+
+    /**
+     * Whether every voice loops a single-cycle table, as render_voice does by
+     * default. Only then may the SIMD path render the voices instead.
+     */
+    protected boolean plays_cycles(){
+        return true;
+    }
+
+    /**
+     * Adds one voice into out. Scripts whose voices do not simply loop their
+     * table override this along with plays_cycles.
+     */
+    protected void render_voice(int v, float[] out, int offset, int frames){
+        float[] table = voices.table[v];
+        float amplitude = voices.amplitude[v];
+        double phase = voices.phase[v];
+        double increment = voices.increment[v];
+        int end = offset + frames;
+        for (int i = offset; i < end; i++){
+            out[i] += amplitude * sine_table.lookup(table, phase);
+            // Accumulate the phase instead of recomputing it from a sample
+            // counter, so the pitch stays stable however long the note plays for
+            phase += increment;
+            if (phase >= 1.0) {
+                phase -= (int) phase;
+            }
+        }
+        voices.phase[v] = phase;
+    }
+
+    /**
+     * Converts float samples to signed 8-bit PCM, clamping to +-127.
+     */
+    public static void quantise(float[] in, int in_offset, byte[] out, int out_offset, int frames){
+        for (int i = 0; i < frames; i++){
+            int value = (int) (in[in_offset + i] * 127f);
+            out[out_offset + i] = (byte) Math.clamp(value, -127, 127);
+        }
+    }
+
+    /**
+     * Renders frames of audio into a caller-owned signed 8-bit buffer.
+     */
+    public void generate(byte[] out, int offset, int frames){
+        while (frames > 0){
+            int block = Math.min(frames, BLOCK_SIZE);
+            render(mix_buffer, 0, block);
+            quantise(mix_buffer, 0, out, offset, block);
+            offset += block;
+            frames -= block;
+        }
     }
 
     public byte[] generate(int cycles){
         byte[] values = new byte[cycles];
-        for (int i=0; i<cycles;i++){
-            values[i] = this.generate_cycle();
-        }
+        generate(values, 0, cycles);
         return values;
     }
+
+    /**
+     * Renders a single sample.
+     * @deprecated use {@link #render(float[], int, int)} or {@link #generate(byte[], int, int)},
+     * which process a whole block per call.
+     */
+    @Deprecated
     public byte generate_cycle(){
-        int total_value = 0;
-        for (Note n: notes){
-            if (n != null){
-            if (n.active){
-                double t = (double) n.cycle / this.SAMPLE_RATE;
-                double freq = 440* Math.pow(2,(n.note-69)/12);
-                double value = (n.velocity+127) * Math.sin(2.0 * Math.PI * freq * t);
-                total_value += (int)value;
+        render(mix_buffer, 0, 1);
+        int value = (int) (mix_buffer[0] * 127f);
+        return (byte) Math.clamp(value, -127, 127);
+    }
 
-                n.cycle +=1;
-            }}
+    public int sample_rate(){
+        return SAMPLE_RATE;
+    }
 
-        }
-        //System.out.println(total_value);
-        return (byte)Math.clamp(total_value,-127,127);
-        //return (byte) Math.max(-127,Math.min(127,total_value));
+    public tuning tuning(){
+        return tuning;
+    }
+
+    /**
+     * Retunes the instrument. The new table is built before it is swapped in,
+     * so the audio thread never waits; voices already playing keep their
+     * pitch and the next note_start uses the new tuning.
+     */
+    public void set_tuning(tuning t){
+        double[] table = t.increments(SAMPLE_RATE);
+        tuning = t;
+        increments = table;
     }
 
+    /**
+     * Phase advance per sample for a note, as a fraction of one cycle, or 0
+     * if the tuning leaves the note unmapped.
+     */
+    public double phase_increment(int note){
+        return increments[Math.clamp(note, 0, audio_core.tuning.NOTES - 1)];
+    }
+
+    /**
+     * Returns the single-cycle table to play for a voice advancing by the given
+     * phase increment. Tables are (power of two + 1) samples long, with the
+     * last sample repeating the first, as in {@link sine_table#TABLE}.
+     */
+    protected abstract float[] table_for(double phase_increment);
+
 }
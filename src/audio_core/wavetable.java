@@ -0,0 +1,111 @@
+package audio_core;
+
+/**
+ * Band-limited copies of a single-cycle waveform, one per octave.
+ *
+ * Playing a bright waveform as-is aliases once its upper harmonics pass the
+ * Nyquist frequency. Level k keeps only harmonics up to SIZE >> (k + 1), which
+ * is half as many as level k - 1, and the last level is a pure sine.
+ * level_for picks the richest level with no harmonic above Nyquist for a
+ * given phase increment, so each voice picks its table once when the note
+ * starts and the per-sample cost stays a single interpolated table read.
+ *
+ * Every level is a guarded table of sine_table.SIZE + 1 samples, read with
+ * sine_table.lookup.
+ */
+public class wavetable {
+    public static final int SIZE = sine_table.SIZE;
+    public static final int LEVELS = sine_table.SIZE_BITS;
+
+    private final float[][] levels = new float[LEVELS][];
+
+    /**
+     * Builds the mipmap for one cycle of a waveform. The cycle can be any
+     * power-of-two length; it is resampled to SIZE in the frequency domain.
+     */
+    public wavetable(float[] cycle){
+        int length = cycle.length;
+        if (length < 2 || Integer.bitCount(length) != 1){
+            throw new IllegalArgumentException("Cycle length must be a power of two of at least 2, got " + length);
+        }
+        double[] re = new double[length];
+        double[] im = new double[length];
+        for (int i = 0; i < length; i++){
+            re[i] = cycle[i];
+        }
+        new fft(length).forward(re, im);
+
+        // Harmonics the input can hold; its Nyquist bin is dropped as it has no phase
+        int harmonics = Math.min(length / 2 - 1, SIZE / 2 - 1);
+        double[] spectrum_re = new double[harmonics + 1];
+        double[] spectrum_im = new double[harmonics + 1];
+        double scale = (double) SIZE / length;
+        for (int h = 0; h <= harmonics; h++){
+            spectrum_re[h] = re[h] * scale;
+            spectrum_im[h] = im[h] * scale;
+        }
+
+        fft inverse = new fft(SIZE);
+        double[] level_re = new double[SIZE];
+        double[] level_im = new double[SIZE];
+        for (int k = 0; k < LEVELS; k++){
+            int top = Math.min(harmonics, Math.max(1, SIZE >> (k + 1)));
+            java.util.Arrays.fill(level_re, 0);
+            java.util.Arrays.fill(level_im, 0);
+            level_re[0] = spectrum_re[0];
+            for (int h = 1; h <= top; h++){
+                // Real signal: the negative frequency bins mirror the positive ones
+                level_re[h] = spectrum_re[h];
+                level_im[h] = spectrum_im[h];
+                level_re[SIZE - h] = spectrum_re[h];
+                level_im[SIZE - h] = -spectrum_im[h];
+            }
+            inverse.inverse(level_re, level_im);
+            float[] table = new float[SIZE + 1];
+            for (int i = 0; i < SIZE; i++){
+                table[i] = (float) level_re[i];
+            }
+            table[SIZE] = table[0];
+            levels[k] = table;
+        }
+    }
+
+    /**
+     * Builds the mipmap for a waveform given as a function of phase in [0, 1).
+     */
+    public static wavetable of(java.util.function.DoubleUnaryOperator waveform){
+        float[] cycle = new float[SIZE];
+        for (int i = 0; i < SIZE; i++){
+            cycle[i] = (float) waveform.applyAsDouble((double) i / SIZE);
+        }
+        return new wavetable(cycle);
+    }
+
+    /**
+     * The level to play at a phase increment: the first whose highest
+     * harmonic stays below Nyquist.
+     */
+    public static int level_for(double phase_increment){
+        return level_for(phase_increment, SIZE);
+    }
+
+    /**
+     * The same for a mipmap built from cycles of a different power-of-two
+     * size, whose level k keeps harmonics up to size >> (k + 1).
+     */
+    public static int level_for(double phase_increment, int size){
+        // Level k's top harmonic, size >> (k + 1), is below Nyquist when 2^k >= size * increment
+        int cycles = (int) Math.ceil(phase_increment * size);
+        int level = cycles <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(cycles - 1);
+        return Math.min(level, Integer.numberOfTrailingZeros(size) - 1);
+    }
+
+    public float[] level(int k){
+        return levels[k];
+    }
+
+    /** The table to play at a phase increment. */
+    public float[] table_for(double phase_increment){
+        return levels[level_for(phase_increment)];
+    }
+}
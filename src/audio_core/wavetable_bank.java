@@ -0,0 +1,228 @@
+package audio_core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A multi-frame wavetable: a run of single-cycle frames to morph between,
+ * each band-limited into one level per octave like wavetable.
+ *
+ * Everything lives in one float[]. It is laid out level by level, and within
+ * a level frame by frame, each frame a guarded table of level_size(k) + 1
+ * samples. A voice reads one level, so voices at similar pitches share the
+ * same region however far apart their morph positions are. Upper levels hold
+ * fewer harmonics and are stored at lower resolution, eight samples per cycle
+ * of their top harmonic up to frame_size, so the whole mipmap is about four
+ * times the size of the frames.
+ */
+public class wavetable_bank {
+    /** Frame size when a WAV file does not say, as for most Serum-style tables. */
+    public static final int DEFAULT_FRAME_SIZE = 2048;
+    private static final int MIN_LEVEL_SIZE = 64;
+
+    public final int frame_size;
+    public final int frames;
+    public final int levels;
+    private final float[] data;
+    private final int[] level_offset;
+    private final int[] level_size;
+
+    /**
+     * Builds a bank from consecutive frames of frame_size samples each.
+     * Samples after the last whole frame are ignored.
+     */
+    public wavetable_bank(float[] samples, int frame_size){
+        if (frame_size < 4 || Integer.bitCount(frame_size) != 1){
+            throw new IllegalArgumentException("Frame size must be a power of two of at least 4, got " + frame_size);
+        }
+        if (samples.length < frame_size){
+            throw new IllegalArgumentException("Need at least one frame of " + frame_size + " samples, got " + samples.length);
+        }
+        this.frame_size = frame_size;
+        this.frames = samples.length / frame_size;
+        this.levels = Integer.numberOfTrailingZeros(frame_size);
+        this.level_offset = new int[levels];
+        this.level_size = new int[levels];
+        int total = 0;
+        for (int k = 0; k < levels; k++){
+            int harmonics = Math.max(1, frame_size >> (k + 1));
+            level_size[k] = Math.min(frame_size, Math.max(MIN_LEVEL_SIZE, harmonics * 8));
+            level_offset[k] = total;
+            total = Math.addExact(total, frames * (level_size[k] + 1));
+        }
+        this.data = new float[total];
+
+        fft forward = new fft(frame_size);
+        fft[] inverse = new fft[levels];
+        double[][] level_re = new double[levels][];
+        double[][] level_im = new double[levels][];
+        double[] re = new double[frame_size];
+        double[] im = new double[frame_size];
+        double[] spectrum_re = new double[frame_size / 2];
+        double[] spectrum_im = new double[frame_size / 2];
+        for (int f = 0; f < frames; f++){
+            for (int i = 0; i < frame_size; i++){
+                re[i] = samples[f * frame_size + i];
+                im[i] = 0;
+            }
+            forward.forward(re, im);
+            System.arraycopy(re, 0, spectrum_re, 0, frame_size / 2);
+            System.arraycopy(im, 0, spectrum_im, 0, frame_size / 2);
+            for (int k = 0; k < levels; k++){
+                int size = level_size[k];
+                if (inverse[k] == null){
+                    inverse[k] = new fft(size);
+                    level_re[k] = new double[size];
+                    level_im[k] = new double[size];
+                }
+                build_level(spectrum_re, spectrum_im, Math.min(frame_size / 2 - 1, Math.max(1, frame_size >> (k + 1))),
+                        inverse[k], level_re[k], level_im[k], level_offset[k] + f * (size + 1));
+            }
+        }
+    }
+
+    // Writes one frame of one level: the spectrum up to top, resynthesised at the level's size
+    private void build_level(double[] spectrum_re, double[] spectrum_im, int top, fft inverse,
+                             double[] re, double[] im, int offset){
+        int size = inverse.size;
+        double scale = (double) size / frame_size;
+        java.util.Arrays.fill(re, 0);
+        java.util.Arrays.fill(im, 0);
+        re[0] = spectrum_re[0] * scale;
+        for (int h = 1; h <= top && h < size / 2; h++){
+            re[h] = spectrum_re[h] * scale;
+            im[h] = spectrum_im[h] * scale;
+            re[size - h] = re[h];
+            im[size - h] = -im[h];
+        }
+        inverse.inverse(re, im);
+        for (int i = 0; i < size; i++){
+            data[offset + i] = (float) re[i];
+        }
+        data[offset + size] = data[offset];
+    }
+
+    /** The whole mipmap, laid out as described above. Read only. */
+    public float[] data(){
+        return data;
+    }
+
+    public int level_offset(int level){
+        return level_offset[level];
+    }
+
+    /** Samples per frame at a level, not counting the guard sample. */
+    public int level_size(int level){
+        return level_size[level];
+    }
+
+    /** The level to play at a phase increment. */
+    public int level_for(double phase_increment){
+        return wavetable.level_for(phase_increment, frame_size);
+    }
+
+    /**
+     * Loads frames from a WAV file. Frames are frame_size samples long, read
+     * from the file's "clm " chunk when it has one (as Serum writes) and
+     * DEFAULT_FRAME_SIZE otherwise. Only the first channel is used.
+     */
+    public static wavetable_bank load(Path path) throws IOException {
+        return load(path, 0);
+    }
+
+    /**
+     * Loads frames of the given size from a WAV file, or of the size the file
+     * gives if frame_size is 0.
+     */
+    public static wavetable_bank load(Path path, int frame_size) throws IOException {
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        try {
+            return read_wav(in, frame_size);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException(path + " is truncated or damaged", e);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(path + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static wavetable_bank read_wav(ByteBuffer in, int frame_size) throws IOException {
+        if (in.getInt(0) != project_file.fourcc("RIFF") || in.getInt(8) != project_file.fourcc("WAVE")){
+            throw new IOException("Not a WAV file");
+        }
+        int format = -1, channels = 0, bits = 0, data_start = -1, data_length = 0, clm_frame_size = 0;
+        int position = 12;
+        while (position + 8 <= in.limit()){
+            int id = in.getInt(position);
+            int length = in.getInt(position + 4);
+            int body = position + 8;
+            if (length < 0){
+                break;
+            }
+            if (id == project_file.fourcc("fmt ")){
+                format = in.getShort(body) & 0xFFFF;
+                channels = in.getShort(body + 2) & 0xFFFF;
+                bits = in.getShort(body + 14) & 0xFFFF;
+                if (format == 0xFFFE && length >= 26){
+                    // WAVE_FORMAT_EXTENSIBLE: the real format leads the subformat GUID
+                    format = in.getShort(body + 24) & 0xFFFF;
+                }
+            } else if (id == project_file.fourcc("data")){
+                data_start = body;
+                data_length = Math.min(length, in.limit() - body);
+            } else if (id == project_file.fourcc("clm ")){
+                clm_frame_size = clm_frame_size(in, body, length);
+            }
+            // Chunks are padded to an even length
+            position = body + length + (length & 1);
+        }
+        if (format == -1 || data_start == -1){
+            throw new IOException("WAV file has no fmt or data chunk");
+        }
+        if (frame_size == 0){
+            frame_size = clm_frame_size != 0 ? clm_frame_size : DEFAULT_FRAME_SIZE;
+        }
+
+        int width = bits / 8;
+        if (channels < 1 || width < 1){
+            throw new IOException("Unsupported WAV layout: " + channels + " channels of " + bits + " bits");
+        }
+        int count = data_length / (width * channels);
+        float[] samples = new float[count];
+        int stride = width * channels;
+        for (int i = 0, at = data_start; i < count; i++, at += stride){
+            samples[i] = switch (format * 100 + bits) {
+                case 108 -> ((in.get(at) & 0xFF) - 128) / 128f;
+                case 116 -> in.getShort(at) / 32768f;
+                case 124 -> ((in.get(at) & 0xFF) | (in.get(at + 1) & 0xFF) << 8 | in.get(at + 2) << 16) / 8388608f;
+                case 132 -> in.getInt(at) / 2147483648f;
+                case 332 -> in.getFloat(at);
+                case 364 -> (float) in.getDouble(at);
+                default -> throw new IOException("Unsupported WAV sample format " + format + " with " + bits + " bits");
+            };
+        }
+        return new wavetable_bank(samples, frame_size);
+    }
+
+    // Serum's "clm " chunk starts with "<!>" and the frame size in ASCII digits
+    private static int clm_frame_size(ByteBuffer in, int body, int length){
+        byte[] text = new byte[Math.min(length, 16)];
+        in.get(body, text);
+        String header = new String(text, StandardCharsets.US_ASCII);
+        if (!header.startsWith("<!>")){
+            return 0;
+        }
+        int end = 3;
+        while (end < header.length() && Character.isDigit(header.charAt(end))){
+            end++;
+        }
+        return end == 3 ? 0 : Integer.parseInt(header.substring(3, end));
+    }
+}
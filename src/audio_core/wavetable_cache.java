@@ -0,0 +1,211 @@
+package audio_core;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Shares wavetable banks between instruments and keeps their memory within a
+ * byte budget.
+ *
+ * Banks are keyed by where they come from (a file, or a name for generated
+ * ones) and the frame size they were built with. Asking for a bank that is
+ * cached, or already loading, returns the same bank, so every voice and
+ * channel using it shares one copy. Otherwise it is loaded on a background
+ * thread. When the banks held pass the budget, the least recently used ones
+ * are dropped; instruments still playing a dropped bank keep it until they
+ * let go, but the next request loads it again.
+ */
+public class wavetable_cache {
+    /** Budget of the shared cache in MiB, from the uwu.wavetable_cache_mb property. */
+    public static final long DEFAULT_BUDGET_MB = Long.getLong("uwu.wavetable_cache_mb", 256);
+
+    private record key(String source, int frame_size) {
+    }
+
+    private static final class entry {
+        final CompletableFuture<wavetable_bank> bank;
+        long bytes = 0; // 0 until loaded
+
+        entry(CompletableFuture<wavetable_bank> bank){
+            this.bank = bank;
+        }
+    }
+
+    private static final class shared_holder {
+        static final wavetable_cache CACHE = new wavetable_cache(DEFAULT_BUDGET_MB << 20);
+    }
+
+    private final long budget_bytes;
+    // In access order, so the first entry is the least recently used
+    private final LinkedHashMap<key, entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes_used = 0;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final ExecutorService loader = Executors.newFixedThreadPool(
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)), task -> {
+                Thread thread = new Thread(task, "wavetable-loader");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+
+    public wavetable_cache(long budget_bytes){
+        if (budget_bytes <= 0){
+            throw new IllegalArgumentException("Cache budget must be positive, got " + budget_bytes);
+        }
+        this.budget_bytes = budget_bytes;
+    }
+
+    /** The cache instruments share by default. */
+    public static wavetable_cache shared(){
+        return shared_holder.CACHE;
+    }
+
+    /**
+     * Starts loading a WAV wavetable, or returns the bank already cached or loading.
+     * @param frame_size samples per frame, or 0 to take it from the file
+     */
+    public CompletableFuture<wavetable_bank> load(Path path, int frame_size){
+        Path source = path.toAbsolutePath().normalize();
+        return load("file:" + source, frame_size, () -> {
+            try {
+                return wavetable_bank.load(source, frame_size);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Starts building a bank from a generator, or returns the bank already
+     * cached or being built under the same name and frame size.
+     */
+    public CompletableFuture<wavetable_bank> load(String name, int frame_size, Supplier<wavetable_bank> generator){
+        key k = new key(name, frame_size);
+        entry e;
+        synchronized (this) {
+            e = entries.get(k);
+            if (e != null){
+                hits.incrementAndGet();
+                return e.bank;
+            }
+            misses.incrementAndGet();
+            e = new entry(new CompletableFuture<>());
+            entries.put(k, e);
+        }
+        entry loading = e;
+        loader.execute(() -> {
+            try {
+                wavetable_bank bank = generator.get();
+                loaded(k, loading, bank);
+                loading.bank.complete(bank);
+            } catch (Throwable failure) {
+                // Forget the failure, so a later request tries again
+                synchronized (this) {
+                    entries.remove(k, loading);
+                }
+                loading.bank.completeExceptionally(failure);
+            }
+        });
+        return e.bank;
+    }
+
+    /**
+     * Loads a WAV wavetable, waiting for it if it is not cached yet.
+     */
+    public wavetable_bank get(Path path, int frame_size) throws IOException {
+        try {
+            return load(path, frame_size).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io){
+                throw io.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private synchronized void loaded(key k, entry e, wavetable_bank bank){
+        if (entries.get(k) != e){
+            return; // invalidated while loading
+        }
+        e.bytes = (long) bank.data().length * Float.BYTES;
+        bytes_used += e.bytes;
+        evict(e);
+    }
+
+    // Drops the least recently used loaded banks until within budget, keeping the one just added
+    private void evict(entry keep){
+        Iterator<Map.Entry<key, entry>> it = entries.entrySet().iterator();
+        while (bytes_used > budget_bytes && it.hasNext()){
+            entry e = it.next().getValue();
+            if (e != keep && e.bytes > 0){
+                it.remove();
+                bytes_used -= e.bytes;
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /** Forgets a file's banks, e.g. after the file changed. */
+    public synchronized void invalidate(Path path){
+        String source = "file:" + path.toAbsolutePath().normalize();
+        Iterator<Map.Entry<key, entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()){
+            Map.Entry<key, entry> e = it.next();
+            if (e.getKey().source.equals(source)){
+                bytes_used -= e.getValue().bytes;
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void clear(){
+        entries.clear();
+        bytes_used = 0;
+    }
+
+    public long budget_bytes(){
+        return budget_bytes;
+    }
+
+    public synchronized long bytes_used(){
+        return bytes_used;
+    }
+
+    public synchronized int size(){
+        return entries.size();
+    }
+
+    /** Requests answered by a bank already cached or loading. */
+    public long hits(){
+        return hits.get();
+    }
+
+    /** Requests that had to start a load. */
+    public long misses(){
+        return misses.get();
+    }
+
+    public long evictions(){
+        return evictions.get();
+    }
+
+    /**
+     * One-line summary for status displays.
+     */
+    public String summary(){
+        return String.format("%d banks, %.1f of %.1f MB, %d hits, %d misses, %d evictions",
+                size(), bytes_used() / 1048576.0, budget_bytes / 1048576.0, hits(), misses(), evictions());
+    }
+}
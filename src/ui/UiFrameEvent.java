@@ -0,0 +1,30 @@
+package ui;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One repaint of a user interface, for lining up UI stalls with audio
+ * glitches in a recording.
+ */
+@Name("uwu.UiFrame")
+@Label("UI Frame")
+@Description("A repaint of the pattern editor or text UI")
+@Category({"UWU", "UI"})
+@StackTrace(false)
+public class UiFrameEvent extends Event {
+    @Label("View")
+    public String view;
+
+    @Label("Rows")
+    @Description("Pattern rows drawn")
+    public int rows;
+
+    @Label("Cells")
+    @Description("Pattern cells drawn")
+    public int cells;
+}
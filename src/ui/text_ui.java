@@ -1,5 +1,7 @@
 package ui;
 
+import audio_core.pattern_store;
+
 public class text_ui {
 
     public static TextWindowConsole console = new TextWindowConsole("Custom Java Console - Arrow Key Input");
@@ -14,16 +16,30 @@ public class text_ui {
 
     public static int row_playing = 0;
 
-    public static int[][][] notes = new int[4][32][4];
+    // The patterns shown; set to the sequencer's song to show what is playing
+    public static pattern_store song = blank_song();
+
+    private static pattern_store blank_song(){
+        pattern_store store = new pattern_store(4);
+        for (int p = 0; p < 4; p++){
+            store.add_order(store.add_pattern(32));
+        }
+        return store;
+    }
 
 
     public static void render_notes(int set,int row){
-        int[][] sequence = notes[set];
-            for (int i=row; (i<16)&&(i-row < 16);i++){
+        UiFrameEvent event = new UiFrameEvent();
+        event.begin();
+        int rows = song.rows(set);
+        int channels = song.channels();
+        int rows_drawn = 0;
+            for (int i=row; (i<rows)&&(i-row < 16);i++){
+                rows_drawn++;
                 console.print(padIntToString(i));
                 console.print(" | ");
-                for (int note: sequence[i]) {
-                    console.print(padIntToString(note));
+                for (int c = 0; c < channels; c++) {
+                    console.print(padIntToString(song.get_note(set, i, c)));
                     console.print(" ");
                 }
                 if (row_playing == i){
@@ -32,9 +48,15 @@ public class text_ui {
                 console.println();
 
         }
+        if (event.shouldCommit()){
+            event.view = "text_ui";
+            event.rows = rows_drawn;
+            event.cells = rows_drawn * channels;
+            event.commit();
+        }
     }
     public static void main(){
-        notes[2][2][1] = 16;
+        song.set_note(2, 2, 1, 16);
         render_notes(2,2);
     }
 